@@ -4,6 +4,7 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.LockSupport;
@@ -23,6 +24,7 @@ import io.grpc.Metadata;
 import io.grpc.stub.StreamObserver;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import org.HdrHistogram.Histogram;
 import org.HdrHistogram.Recorder;
 
 public class BenchmarkClient {
@@ -82,17 +84,72 @@ public class BenchmarkClient {
                     "Reset failed and will be ignored (ratelimit.continueOnResetFailure=true). Continuing benchmark.");
         }
 
-        runWarmup(stub, keyPrefix, mode, threads, warmupSeconds, targetRpsList);
-        for (int rps : targetRpsList) {
-            runBenchmark(stub, keyPrefix, mode, threads, durationSeconds, rps);
-            System.out.println("Cooling down for 5 seconds...");
-            Thread.sleep(5000);
+        if (LoadCoordinator.WORKERS > 0) {
+            LoadCoordinator.run(target, keyPrefix, mode, threads, durationSeconds, warmupSeconds, targetRpsList);
+        } else {
+            runWarmup(stub, keyPrefix, mode, threads, warmupSeconds, targetRpsList);
+            for (int rps : targetRpsList) {
+                runBenchmark(stub, keyPrefix, mode, threads, durationSeconds, rps);
+                System.out.println("Cooling down for 5 seconds...");
+                Thread.sleep(5000);
+            }
         }
 
         channel.shutdown();
         channel.awaitTermination(10, TimeUnit.SECONDS);
     }
 
+    /**
+     * Runs the same phases against several deployments, one after the other for each target rate, and labels
+     * each summary line with {@code route=<name>}. The order alternates between rates so neither side always
+     * runs on the Redis state the other left behind. Arguments are those of {@link #run} without the target.
+     */
+    static void runComparison(String[] args, KeyMode mode, int[] targetRpsList, Map<String, String> targets)
+            throws InterruptedException {
+        String keyPrefix = getArg(args, 0, "key");
+        int threads = Integer.parseInt(getArg(args, 1, String.valueOf(DEFAULT_THREADS)));
+        int durationSeconds = Integer.parseInt(getArg(args, 2, String.valueOf(DEFAULT_DURATION_SECONDS)));
+        int warmupSeconds = Integer.parseInt(getArg(args, 3, String.valueOf(DEFAULT_WARMUP_SECONDS)));
+
+        List<String> names = new ArrayList<>(targets.keySet());
+        List<ManagedChannel> channels = new ArrayList<>();
+        List<RateLimitServiceGrpc.RateLimitServiceStub> stubs = new ArrayList<>();
+        for (String name : names) {
+            ManagedChannel channel = ManagedChannelBuilder.forTarget(targets.get(name))
+                    .usePlaintext()
+                    .build();
+            channels.add(channel);
+            stubs.add(RateLimitServiceGrpc.newStub(channel));
+            try {
+                resetKeysWithRetry(RateLimitServiceGrpc.newBlockingStub(channel), targets.get(name), keyPrefix, mode);
+            } catch (StatusRuntimeException e) {
+                if (!CONTINUE_ON_RESET_FAILURE) {
+                    throw e;
+                }
+                System.err.println("Reset failed and will be ignored (ratelimit.continueOnResetFailure=true). Continuing benchmark.");
+            }
+            PhaseResult warmup = runPhase(stubs.get(stubs.size() - 1), keyPrefix, mode, threads, warmupSeconds,
+                    targetRpsList[0]);
+            report("warmup", mode, targetRpsList[0], warmup, " route=" + name);
+        }
+
+        for (int step = 0; step < targetRpsList.length; step++) {
+            int rps = targetRpsList[step];
+            for (int i = 0; i < names.size(); i++) {
+                int index = step % 2 == 0 ? i : names.size() - 1 - i;
+                PhaseResult result = runPhase(stubs.get(index), keyPrefix, mode, threads, durationSeconds, rps);
+                report("benchmark", mode, rps, result, " route=" + names.get(index));
+                System.out.println("Cooling down for 5 seconds...");
+                Thread.sleep(5000);
+            }
+        }
+
+        for (ManagedChannel channel : channels) {
+            channel.shutdown();
+            channel.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
     private static void runWarmup(RateLimitServiceGrpc.RateLimitServiceStub stub,
             String keyPrefix,
             KeyMode mode,
@@ -227,6 +284,20 @@ public class BenchmarkClient {
             int threads,
             int durationSeconds,
             int targetRps) throws InterruptedException {
+        PhaseResult result = runPhase(stub, keyPrefix, mode, threads, durationSeconds, targetRps);
+        report(phase, mode, targetRps, result, "");
+    }
+
+    /**
+     * Sends {@code targetRps} for {@code durationSeconds}, waits for every call to complete and returns the
+     * counts and latency histogram without printing anything.
+     */
+    static PhaseResult runPhase(RateLimitServiceGrpc.RateLimitServiceStub stub,
+            String keyPrefix,
+            KeyMode mode,
+            int threads,
+            int durationSeconds,
+            int targetRps) throws InterruptedException {
         long durationNanos = Duration.ofSeconds(durationSeconds).toNanos();
         long endTime = System.nanoTime() + durationNanos;
         int baseRps = targetRps / threads;
@@ -312,25 +383,45 @@ public class BenchmarkClient {
             while (inflight.get() > 0) {
                 LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
             }
-            long elapsedNanos = System.nanoTime() - start;
-            double seconds = Duration.ofNanos(elapsedNanos).toMillis() / 1000.0;
-            double rps = sent.get() / seconds;
-            long completed = successCount.sum() + failCount.sum();
-            double avgMillis = completed > 0 ? (totalLatencyNanos.sum() / 1_000_000.0) / completed : 0.0;
-            var histogram = recorder.getIntervalHistogram();
-            double p95Millis = histogram.getValueAtPercentile(95.0) / 1000.0;
-            double p99Millis = histogram.getValueAtPercentile(99.0) / 1000.0;
-
-            System.out.printf(Locale.US,
-                    "%s mode=%s targetRps=%d total=%d success=%d fail=%d avg=%.3fms p95=%.3fms p99=%.3fms time=%.3fs rps=%.0f%n",
-                    phase, mode.name(), targetRps, sent.get(), successCount.sum(), failCount.sum(),
-                    avgMillis, p95Millis, p99Millis, seconds, rps);
-
-            if (p99Millis > 100.0) {
-                System.out.printf(
-                        "WARNING: P99 Latency (%.3fms) Exceeded 100ms threshold! Recommended max effective RPS is likely lower than %d.%n",
-                        p99Millis, targetRps);
-            }
+            return new PhaseResult(sent.get(), successCount.sum(), failCount.sum(), totalLatencyNanos.sum(),
+                    System.nanoTime() - start, recorder.getIntervalHistogram());
+        }
+    }
+
+    /**
+     * Prints the summary line of a phase, plus the latency warning when p99 is over 100ms.
+     */
+    static void report(String phase, KeyMode mode, int targetRps, PhaseResult result, String suffix) {
+        double seconds = Duration.ofNanos(result.elapsedNanos()).toMillis() / 1000.0;
+        double rps = result.sent() / seconds;
+        long completed = result.success() + result.fail();
+        double avgMillis = completed > 0 ? (result.totalLatencyNanos() / 1_000_000.0) / completed : 0.0;
+        double p95Millis = result.histogram().getValueAtPercentile(95.0) / 1000.0;
+        double p99Millis = result.histogram().getValueAtPercentile(99.0) / 1000.0;
+
+        System.out.printf(Locale.US,
+                "%s mode=%s targetRps=%d total=%d success=%d fail=%d avg=%.3fms p95=%.3fms p99=%.3fms time=%.3fs rps=%.0f%s%n",
+                phase, mode.name(), targetRps, result.sent(), result.success(), result.fail(),
+                avgMillis, p95Millis, p99Millis, seconds, rps, suffix);
+
+        if (p99Millis > 100.0) {
+            System.out.printf(
+                    "WARNING: P99 Latency (%.3fms) Exceeded 100ms threshold! Recommended max effective RPS is likely lower than %d.%n",
+                    p99Millis, targetRps);
+        }
+    }
+
+    /**
+     * Counts and latency histogram (microseconds) of one phase; phases run by several workers merge into one.
+     */
+    record PhaseResult(long sent, long success, long fail, long totalLatencyNanos, long elapsedNanos,
+                       Histogram histogram) {
+
+        PhaseResult merge(PhaseResult other) {
+            Histogram merged = histogram.copy();
+            merged.add(other.histogram);
+            return new PhaseResult(sent + other.sent, success + other.success, fail + other.fail,
+                    totalLatencyNanos + other.totalLatencyNanos, Math.max(elapsedNanos, other.elapsedNanos), merged);
         }
     }
 
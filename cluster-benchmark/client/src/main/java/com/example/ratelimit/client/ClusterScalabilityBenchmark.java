@@ -1,15 +1,38 @@
 package com.example.ratelimit.client;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class ClusterScalabilityBenchmark {
-    public static void main(String[] args) throws InterruptedException {
-        System.out.println("Testing cluster with 2 app instances via Envoy - Higher RPS");
 
+    /**
+     * gRPC target of an app with {@code ratelimit.cluster.routing=DIRECT}. When set, the first argument is taken
+     * as the proxy-routed app and every rate runs against both (see the {@code routing} compose profile).
+     */
+    private static final String DIRECT_TARGET = System.getProperty("ratelimit.directTarget", "");
+
+    public static void main(String[] args) throws InterruptedException {
         // Test points:
         // 10k, 20k (Baseline)
         // 30k (Previous Limit)
         // 45k (1.5x)
         // 60k (2x - Theoretical limit for 3 nodes if perfectly linear)
         int[] targetRps = { 10_000, 15_000, 20_000, 25_000, 30_000, 35_000, 40_000, 45_000, 50_000 };
+
+        if (!DIRECT_TARGET.isBlank()) {
+            String proxyTarget = args.length > 0 && !args[0].isBlank() ? args[0] : "localhost:9093";
+            System.out.printf("Comparing proxy routing (%s) with direct routing (%s) at the same load%n",
+                    proxyTarget, DIRECT_TARGET);
+            Map<String, String> targets = new LinkedHashMap<>();
+            targets.put("proxy", proxyTarget);
+            targets.put("direct", DIRECT_TARGET);
+            String[] rest = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[0];
+            BenchmarkClient.runComparison(rest, BenchmarkClient.KeyMode.HUNDRED_KEYS, targetRps, targets);
+            return;
+        }
+
+        System.out.println("Testing cluster with 2 app instances via Envoy - Higher RPS");
         BenchmarkClient.run(args, BenchmarkClient.KeyMode.HUNDRED_KEYS, targetRps);
     }
 }
@@ -0,0 +1,225 @@
+package com.example.ratelimit.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Splits each phase across several client JVMs when {@code -Dratelimit.workers=N} is set, so the load
+ * generator is not the ceiling of the cluster run.
+ * <p>
+ * The coordinator listens on {@code ratelimit.coordinatorPort} and, unless {@code ratelimit.spawnWorkers=false},
+ * starts the N {@link LoadWorker} JVMs itself on the same classpath. Workers started by hand on other boxes
+ * connect with {@code LoadWorker <coordinatorHost:port>}. For every phase each worker gets its share of the target
+ * rate and a common wall-clock start time, runs it with {@code threads} sender threads of its own, and sends back
+ * its counts and its latency histogram in HdrHistogram's compressed encoding. The coordinator merges them and
+ * prints the usual summary line with {@code workers=N}, followed by one line per worker.
+ * <p>
+ * Wire format, over one TCP connection per worker ({@link DataOutputStream} encoding):
+ * <pre>
+ * coordinator -> worker: target, keyPrefix, mode, threads                       once
+ *                        true, phase, targetRps, durationSeconds, startAtMillis  per phase
+ *                        false                                                   at the end
+ * worker -> coordinator: sent, success, fail, totalLatencyNanos, elapsedNanos,
+ *                        histogram length, histogram bytes                       per phase
+ * </pre>
+ */
+final class LoadCoordinator {
+
+    /** Number of worker JVMs; 0 runs the phases in this JVM as before. */
+    static final int WORKERS = Integer.getInteger("ratelimit.workers", 0);
+
+    private static final int PORT = Integer.getInteger("ratelimit.coordinatorPort", 9300);
+
+    /** Start the workers as child processes of this JVM; false waits for them to connect on their own. */
+    private static final boolean SPAWN_WORKERS = Boolean.parseBoolean(System.getProperty("ratelimit.spawnWorkers", "true"));
+
+    /** Heap of each spawned worker JVM, e.g. {@code 1g}. */
+    private static final String WORKER_HEAP = System.getProperty("ratelimit.workerHeap", "");
+
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    /** Lead time between announcing a phase and its start, so every worker begins at the same instant. */
+    private static final long START_DELAY_MILLIS = 500;
+
+    private LoadCoordinator() {
+    }
+
+    static void run(String target,
+            String keyPrefix,
+            BenchmarkClient.KeyMode mode,
+            int threads,
+            int durationSeconds,
+            int warmupSeconds,
+            int[] targetRpsList) throws InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        List<Connection> workers = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(PORT)) {
+            server.setSoTimeout((int) CONNECT_TIMEOUT_MILLIS);
+            int port = server.getLocalPort();
+            System.out.printf("Coordinator waiting for %d workers on port %d%n", WORKERS, port);
+            if (SPAWN_WORKERS) {
+                for (int i = 0; i < WORKERS; i++) {
+                    processes.add(spawnWorker(port));
+                }
+            }
+            for (int i = 0; i < WORKERS; i++) {
+                Connection worker = new Connection(server.accept());
+                worker.out.writeUTF(target);
+                worker.out.writeUTF(keyPrefix);
+                worker.out.writeUTF(mode.name());
+                worker.out.writeInt(threads);
+                workers.add(worker);
+            }
+
+            runPhase("warmup", workers, mode, warmupSeconds, targetRpsList[0]);
+            for (int rps : targetRpsList) {
+                runPhase("benchmark", workers, mode, durationSeconds, rps);
+                System.out.println("Cooling down for 5 seconds...");
+                Thread.sleep(5000);
+            }
+
+            for (Connection worker : workers) {
+                worker.out.writeBoolean(false);
+                worker.out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("distributed run failed", e);
+        } finally {
+            for (Connection worker : workers) {
+                worker.close();
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            }
+        }
+    }
+
+    private static void runPhase(String phase,
+            List<Connection> workers,
+            BenchmarkClient.KeyMode mode,
+            int durationSeconds,
+            int targetRps) throws IOException {
+        long startAt = System.currentTimeMillis() + START_DELAY_MILLIS;
+        int baseRps = targetRps / workers.size();
+        int remainder = targetRps % workers.size();
+        for (int i = 0; i < workers.size(); i++) {
+            DataOutputStream out = workers.get(i).out;
+            out.writeBoolean(true);
+            out.writeUTF(phase);
+            out.writeInt(i < remainder ? baseRps + 1 : baseRps);
+            out.writeInt(durationSeconds);
+            out.writeLong(startAt);
+            out.flush();
+        }
+
+        // Workers run concurrently; reading their results in order only decides who is waited on first.
+        List<BenchmarkClient.PhaseResult> results = new ArrayList<>();
+        for (Connection worker : workers) {
+            results.add(readResult(worker.in));
+        }
+        BenchmarkClient.PhaseResult merged = results.get(0);
+        for (int i = 1; i < results.size(); i++) {
+            merged = merged.merge(results.get(i));
+        }
+        BenchmarkClient.report(phase, mode, targetRps, merged, " workers=" + workers.size());
+        for (int i = 0; i < results.size(); i++) {
+            BenchmarkClient.PhaseResult result = results.get(i);
+            System.out.printf(Locale.US, "  worker-%d total=%d fail=%d p99=%.3fms rps=%.0f%n", i + 1, result.sent(),
+                    result.fail(), result.histogram().getValueAtPercentile(99.0) / 1000.0,
+                    result.sent() / (result.elapsedNanos() / 1e9));
+        }
+    }
+
+    static void writeResult(DataOutputStream out, BenchmarkClient.PhaseResult result) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(result.histogram().getNeededByteBufferCapacity());
+        int length = result.histogram().encodeIntoCompressedByteBuffer(buffer);
+        out.writeLong(result.sent());
+        out.writeLong(result.success());
+        out.writeLong(result.fail());
+        out.writeLong(result.totalLatencyNanos());
+        out.writeLong(result.elapsedNanos());
+        out.writeInt(length);
+        out.write(buffer.array(), 0, length);
+        out.flush();
+    }
+
+    private static BenchmarkClient.PhaseResult readResult(DataInputStream in) throws IOException {
+        long sent = in.readLong();
+        long success = in.readLong();
+        long fail = in.readLong();
+        long totalLatencyNanos = in.readLong();
+        long elapsedNanos = in.readLong();
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        try {
+            Histogram histogram = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(encoded), 0);
+            return new BenchmarkClient.PhaseResult(sent, success, fail, totalLatencyNanos, elapsedNanos, histogram);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt histogram from worker", e);
+        }
+    }
+
+    private static Process spawnWorker(int port) throws IOException {
+        String java = ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if (!WORKER_HEAP.isBlank()) {
+            command.add("-Xmx" + WORKER_HEAP);
+        }
+        System.getProperties().forEach((key, value) -> {
+            String name = key.toString();
+            if (name.startsWith("ratelimit.") && !name.equals("ratelimit.workers")) {
+                command.add("-D" + name + "=" + value);
+            }
+        });
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(LoadWorker.class.getName());
+        command.add("localhost:" + port);
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * One worker's socket with buffered streams on both directions.
+     */
+    static final class Connection implements AutoCloseable {
+
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already gone; nothing left to release.
+            }
+        }
+    }
+}
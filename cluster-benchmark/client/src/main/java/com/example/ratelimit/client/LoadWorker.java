@@ -0,0 +1,56 @@
+package com.example.ratelimit.client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import com.example.ratelimit.grpc.RateLimitServiceGrpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+/**
+ * Worker side of a distributed run: connects to a {@link LoadCoordinator}, runs every phase it is given at
+ * the announced start time and reports the result back. Started by the coordinator, or by hand on another
+ * box with {@code LoadWorker <coordinatorHost:port>}.
+ */
+public final class LoadWorker {
+
+    private LoadWorker() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String coordinator = args.length > 0 ? args[0] : "localhost:9300";
+        int colon = coordinator.lastIndexOf(':');
+        try (LoadCoordinator.Connection connection = new LoadCoordinator.Connection(
+                new Socket(coordinator.substring(0, colon), Integer.parseInt(coordinator.substring(colon + 1))))) {
+            String target = connection.in.readUTF();
+            String keyPrefix = connection.in.readUTF();
+            BenchmarkClient.KeyMode mode = BenchmarkClient.KeyMode.valueOf(connection.in.readUTF());
+            int threads = connection.in.readInt();
+
+            ManagedChannel channel = ManagedChannelBuilder.forTarget(target)
+                    .usePlaintext()
+                    .build();
+            RateLimitServiceGrpc.RateLimitServiceStub stub = RateLimitServiceGrpc.newStub(channel);
+            try {
+                while (connection.in.readBoolean()) {
+                    connection.in.readUTF();
+                    int targetRps = connection.in.readInt();
+                    int durationSeconds = connection.in.readInt();
+                    long startAt = connection.in.readLong();
+                    long delay = startAt - System.currentTimeMillis();
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    BenchmarkClient.PhaseResult result = BenchmarkClient.runPhase(stub, keyPrefix, mode, threads,
+                            durationSeconds, targetRps);
+                    LoadCoordinator.writeResult(connection.out, result);
+                }
+            } finally {
+                channel.shutdown();
+                channel.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+}
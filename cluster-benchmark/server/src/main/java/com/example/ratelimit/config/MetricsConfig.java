@@ -1,15 +1,16 @@
 package com.example.ratelimit.config;
 
+import com.example.ratelimit.redis.NodeConnectionMetrics;
+
+import io.lettuce.core.metrics.MicrometerOptions;
 import io.lettuce.core.resource.ClientResources;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.MeterBinder;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.time.Duration;
 
 @Configuration
 public class MetricsConfig {
@@ -49,25 +50,24 @@ public class MetricsConfig {
     }
 
     /**
-     * Expose Lettuce connection pool metrics
+     * Options for the Lettuce command latency recorder that Boot installs on the shared {@link ClientResources}:
+     * {@code lettuce.command.completion} per command type and Redis node ({@code remote}), with histogram buckets
+     * so the per-node latency of direct routing can be compared across instances.
      */
     @Bean
-    public MeterBinder lettuceMetricsBinder(@Autowired(required = false) LettuceConnectionFactory connectionFactory,
-                                            MeterRegistry registry) {
-        return (reg) -> {
-            if (connectionFactory != null) {
-                // Register pool metrics if available
-                Gauge.builder("redis.connection.active", () -> {
-                            try {
-                                // Attempt to get pool metrics
-                                return connectionFactory.getConnection() != null ? 1 : 0;
-                            } catch (Exception e) {
-                                return -1;
-                            }
-                        })
-                        .description("Redis connection pool active status")
-                        .register(reg);
-            }
-        };
+    public MicrometerOptions lettuceMicrometerOptions() {
+        return MicrometerOptions.builder()
+                .histogram(true)
+                .minLatency(Duration.ofNanos(50_000))
+                .maxLatency(Duration.ofSeconds(1))
+                .build();
+    }
+
+    /**
+     * Per-node connection and cluster topology events of every Lettuce client on the shared resources.
+     */
+    @Bean(destroyMethod = "close")
+    public NodeConnectionMetrics lettuceNodeConnectionMetrics(ClientResources clientResources) {
+        return new NodeConnectionMetrics(clientResources.eventBus());
     }
 }
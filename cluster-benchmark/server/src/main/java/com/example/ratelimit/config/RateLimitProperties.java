@@ -0,0 +1,380 @@
+package com.example.ratelimit.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Tunables for the rate limit hot path, bound from the {@code ratelimit.*} keys in application.yml.
+ */
+@ConfigurationProperties(prefix = "ratelimit")
+public class RateLimitProperties {
+
+    private final HotKeys hotKeys = new HotKeys();
+
+    private final Cluster cluster = new Cluster();
+
+    private final Local local = new Local();
+
+    public HotKeys getHotKeys() {
+        return hotKeys;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public Local getLocal() {
+        return local;
+    }
+
+    /**
+     * Approximate limiting in the app itself: requests are counted in memory and answered without a Redis round
+     * trip, trading accuracy for latency.
+     */
+    public static class Local {
+
+        private boolean enabled = false;
+
+        /**
+         * Keys counted locally, by prefix; empty counts every key locally. Other keys go to Redis as usual.
+         */
+        private List<String> keyPrefixes = new ArrayList<>();
+
+        /**
+         * Per key class settings, by key prefix; a key takes the class of its longest matching prefix, and the
+         * class's unset fields fall back to the ones below. Keys matching a class are counted locally too.
+         */
+        private Map<String, KeyClass> classes = new LinkedHashMap<>();
+
+        /**
+         * App instances sharing the load, N. With no sync each instance reports its own count times N, i.e.
+         * it enforces limit/N on its share.
+         */
+        private int instances = 2;
+
+        private Sync sync = Sync.REDIS;
+
+        /**
+         * How often local deltas are flushed to Redis; the global count an instance sees is at most this old.
+         */
+        private Duration syncInterval = Duration.ofMillis(100);
+
+        /**
+         * Counting window, the same as the EXPIRE of the Redis script.
+         */
+        private Duration window = Duration.ofSeconds(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getKeyPrefixes() {
+            return keyPrefixes;
+        }
+
+        public void setKeyPrefixes(List<String> keyPrefixes) {
+            this.keyPrefixes = keyPrefixes;
+        }
+
+        public Map<String, KeyClass> getClasses() {
+            return classes;
+        }
+
+        public void setClasses(Map<String, KeyClass> classes) {
+            this.classes = classes;
+        }
+
+        public int getInstances() {
+            return instances;
+        }
+
+        public void setInstances(int instances) {
+            this.instances = instances;
+        }
+
+        public Sync getSync() {
+            return sync;
+        }
+
+        public void setSync(Sync sync) {
+            this.sync = sync;
+        }
+
+        public Duration getSyncInterval() {
+            return syncInterval;
+        }
+
+        public void setSyncInterval(Duration syncInterval) {
+            this.syncInterval = syncInterval;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        /**
+         * Accuracy/latency settings for the keys of one prefix; {@code null} inherits from {@link Local}.
+         */
+        public static class KeyClass {
+
+            private Sync sync;
+
+            private Duration syncInterval;
+
+            public Sync getSync() {
+                return sync;
+            }
+
+            public void setSync(Sync sync) {
+                this.sync = sync;
+            }
+
+            public Duration getSyncInterval() {
+                return syncInterval;
+            }
+
+            public void setSyncInterval(Duration syncInterval) {
+                this.syncInterval = syncInterval;
+            }
+        }
+
+        public enum Sync {
+            /** Purely local: the own count scaled by the number of instances. */
+            NONE,
+            /** Deltas are added to the Redis counter every sync interval; the count is the last global value
+             * plus what this instance counted since. */
+            REDIS
+        }
+    }
+
+    /**
+     * How the app reaches Redis Cluster. {@code routing} picks the path of every command: {@code PROXY} treats
+     * the {@code spring.data.redis.*} endpoint (the proxy) as a single node, {@code DIRECT} uses a cluster
+     * client that routes by slot to the masters. {@code enabled} adds the cluster-aware multi-key path, which
+     * talks to the masters directly in either routing mode.
+     */
+    public static class Cluster {
+
+        private boolean enabled = false;
+
+        private Routing routing = Routing.PROXY;
+
+        /**
+         * Seed nodes ({@code host:port}) for the cluster client; empty uses the {@code spring.data.redis.*}
+         * endpoint, from which the client reads the topology and then connects to the nodes it lists.
+         */
+        private List<String> nodes = new ArrayList<>();
+
+        /**
+         * Lettuce {@code ReadFrom} name ({@code upstream}, {@code upstreamPreferred}, {@code replicaPreferred},
+         * {@code lowestLatency}, ...). Only read-only commands use it; the rate limit script always runs on the
+         * master that owns the key.
+         */
+        private String readFrom = "upstream";
+
+        /**
+         * Interval of the periodic topology refresh; adaptive triggers (MOVED, ASK, persistent reconnects,
+         * uncovered slots) refresh in between.
+         */
+        private Duration refreshPeriod = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Routing getRouting() {
+            return routing;
+        }
+
+        public void setRouting(Routing routing) {
+            this.routing = routing;
+        }
+
+        public List<String> getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(List<String> nodes) {
+            this.nodes = nodes;
+        }
+
+        public String getReadFrom() {
+            return readFrom;
+        }
+
+        public void setReadFrom(String readFrom) {
+            this.readFrom = readFrom;
+        }
+
+        public Duration getRefreshPeriod() {
+            return refreshPeriod;
+        }
+
+        public void setRefreshPeriod(Duration refreshPeriod) {
+            this.refreshPeriod = refreshPeriod;
+        }
+
+        public enum Routing {
+            /** Every command goes to the proxy endpoint over a standalone connection. */
+            PROXY,
+            /** Commands go straight to the master owning the key, from the cluster client's topology. */
+            DIRECT
+        }
+    }
+
+    /**
+     * Online hot-key detection and splitting of hot counters across cluster slots.
+     */
+    public static class HotKeys {
+
+        private boolean enabled = false;
+
+        /**
+         * Length of the detection window; the hot set is recomputed at the end of every window.
+         */
+        private Duration window = Duration.ofSeconds(1);
+
+        /**
+         * A key is hot when it takes at least this share of the sampled requests of a window.
+         */
+        private double threshold = 0.1;
+
+        /**
+         * Windows in a row a hot key must stay below the threshold before it is merged back.
+         */
+        private int cooldown = 3;
+
+        /**
+         * How long after a key is split or merged back its old counters are still added in. Set to the rate-limit
+         * window, the TTL of the counters.
+         */
+        private Duration carryOver = Duration.ofSeconds(1);
+
+        /**
+         * One request in this many is fed to the sketch.
+         */
+        private int sampleEvery = 16;
+
+        /**
+         * Counters kept by the Space-Saving sketch; keys below the {@code capacity}-th heaviest are not tracked.
+         */
+        private int capacity = 64;
+
+        /**
+         * Upper bound on keys split at the same time.
+         */
+        private int maxHotKeys = 8;
+
+        /**
+         * Sub-keys a hot key is split into. Each gets a hash tag in a different slot range, so with the usual
+         * even slot assignment they land on different masters.
+         */
+        private int shards = 3;
+
+        private Policy policy = Policy.APPROXIMATE;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public double getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(double threshold) {
+            this.threshold = threshold;
+        }
+
+        public int getCooldown() {
+            return cooldown;
+        }
+
+        public void setCooldown(int cooldown) {
+            this.cooldown = cooldown;
+        }
+
+        public Duration getCarryOver() {
+            return carryOver;
+        }
+
+        public void setCarryOver(Duration carryOver) {
+            this.carryOver = carryOver;
+        }
+
+        public int getSampleEvery() {
+            return sampleEvery;
+        }
+
+        public void setSampleEvery(int sampleEvery) {
+            this.sampleEvery = sampleEvery;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getMaxHotKeys() {
+            return maxHotKeys;
+        }
+
+        public void setMaxHotKeys(int maxHotKeys) {
+            this.maxHotKeys = maxHotKeys;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public Policy getPolicy() {
+            return policy;
+        }
+
+        public void setPolicy(Policy policy) {
+            this.policy = policy;
+        }
+
+        public enum Policy {
+            /** Count on one random sub-key and scale it by the number of shards: one Redis call. */
+            APPROXIMATE,
+            /** Count on one random sub-key and add up the others with GETs sent in parallel. */
+            EXACT
+        }
+    }
+}
@@ -1,16 +1,32 @@
 package com.example.ratelimit.config;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.resource.ClientResources;
+
 @Configuration
 public class RedisConfig {
 
@@ -39,4 +55,101 @@ public class RedisConfig {
         script.setScriptText(lua);
         return script;
     }
+
+    /**
+     * Adds a batch of requests counted elsewhere (ARGV[2]) to the window counter and returns the new total; the
+     * window starts with whichever batch creates the key, as with {@link #rateLimitScript}.
+     */
+    @Bean
+    public RedisScript<Long> rateLimitIncrByScript() {
+        String lua = "local current = redis.call('INCRBY', KEYS[1], ARGV[2]); " +
+                     "if current == tonumber(ARGV[2]) then " +
+                     "   redis.call('EXPIRE', KEYS[1], ARGV[1]); " +
+                     "end; " +
+                     "return current;";
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setResultType(Long.class);
+        script.setScriptText(lua);
+        return script;
+    }
+
+    /**
+     * Connection factory for {@code ratelimit.cluster.routing=DIRECT}, replacing Boot's standalone one: the
+     * template then sends each command to the master owning its slot over one multiplexed connection per node,
+     * without the proxy hop. Uses the same client options as {@link #rateLimitClusterClient}.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "ratelimit.cluster", name = "routing", havingValue = "DIRECT")
+    public LettuceConnectionFactory redisConnectionFactory(RedisProperties properties,
+                                                           RateLimitProperties rateLimitProperties,
+                                                           ClientResources clientResources) {
+        RateLimitProperties.Cluster cluster = rateLimitProperties.getCluster();
+        RedisClusterConfiguration configuration = new RedisClusterConfiguration(seedNodes(properties, cluster));
+        if (properties.getPassword() != null) {
+            configuration.setUsername(properties.getUsername());
+            configuration.setPassword(properties.getPassword());
+        }
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder()
+                .clientResources(clientResources)
+                .clientOptions(clusterClientOptions(cluster))
+                .readFrom(ReadFrom.valueOf(cluster.getReadFrom()));
+        if (properties.getTimeout() != null) {
+            client.commandTimeout(properties.getTimeout());
+        }
+        return new LettuceConnectionFactory(configuration, client.build());
+    }
+
+    /**
+     * Cluster client for the slot-aware paths, and with {@code DIRECT} routing for the scripts, which it loads on
+     * every master. Seeded from {@code ratelimit.cluster.nodes}, or else the {@code spring.data.redis.*} endpoint
+     * (the proxy), which is then only where the topology is read from; commands go to the masters it lists.
+     * Shares Boot's {@link ClientResources}.
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnExpression("${ratelimit.cluster.enabled:false} or '${ratelimit.cluster.routing:PROXY}' == 'DIRECT'")
+    public RedisClusterClient rateLimitClusterClient(RedisProperties properties,
+                                                     RateLimitProperties rateLimitProperties,
+                                                     ClientResources clientResources) {
+        RateLimitProperties.Cluster cluster = rateLimitProperties.getCluster();
+        List<RedisURI> seeds = new ArrayList<>();
+        for (String node : seedNodes(properties, cluster)) {
+            RedisURI.Builder seed = RedisURI.builder(RedisURI.create("redis://" + node));
+            if (properties.getPassword() != null) {
+                if (properties.getUsername() != null) {
+                    seed.withAuthentication(properties.getUsername(), properties.getPassword());
+                } else {
+                    seed.withPassword(properties.getPassword().toCharArray());
+                }
+            }
+            if (properties.getTimeout() != null) {
+                seed.withTimeout(properties.getTimeout());
+            }
+            seeds.add(seed.build());
+        }
+        RedisClusterClient client = RedisClusterClient.create(clientResources, seeds);
+        client.setOptions(clusterClientOptions(cluster));
+        return client;
+    }
+
+    /**
+     * Periodic plus adaptive topology refresh, so a failover or resharding is picked up on the first
+     * redirect instead of at the next period.
+     */
+    private static ClusterClientOptions clusterClientOptions(RateLimitProperties.Cluster cluster) {
+        ClusterTopologyRefreshOptions refresh = ClusterTopologyRefreshOptions.builder()
+                .enablePeriodicRefresh(cluster.getRefreshPeriod())
+                .enableAllAdaptiveRefreshTriggers()
+                .adaptiveRefreshTriggersTimeout(Duration.ofSeconds(5))
+                .build();
+        return ClusterClientOptions.builder()
+                .topologyRefreshOptions(refresh)
+                .build();
+    }
+
+    private static List<String> seedNodes(RedisProperties properties, RateLimitProperties.Cluster cluster) {
+        if (!cluster.getNodes().isEmpty()) {
+            return cluster.getNodes();
+        }
+        return List.of(properties.getHost() + ":" + properties.getPort());
+    }
 }
@@ -1,12 +1,19 @@
 package com.example.ratelimit.grpc;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.script.RedisScript;
 
+import com.example.ratelimit.limiter.HotKeySplitter;
+import com.example.ratelimit.limiter.LocalLimiter;
+import com.example.ratelimit.redis.ScriptExecutor;
+import com.example.ratelimit.redis.SlotBatchExecutor;
+
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
@@ -14,21 +21,34 @@ import io.micrometer.core.instrument.Timer;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
+import reactor.core.publisher.Mono;
 
 @GrpcService
 public class RateLimitGrpcService extends RateLimitServiceGrpc.RateLimitServiceImplBase {
 
     private final ReactiveStringRedisTemplate redisTemplate;
+    private final ScriptExecutor scripts;
     private final RedisScript<Long> rateLimitScript;
+    private final HotKeySplitter hotKeys;
+    private final SlotBatchExecutor slotBatches;
+    private final LocalLimiter localLimiter;
     private final Counter totalRequests;
     private final Counter redisErrors;
     private final Timer redisTimer;
 
     public RateLimitGrpcService(ReactiveStringRedisTemplate redisTemplate,
+                                ScriptExecutor scripts,
                                 RedisScript<Long> rateLimitScript,
+                                ObjectProvider<HotKeySplitter> hotKeys,
+                                ObjectProvider<SlotBatchExecutor> slotBatches,
+                                ObjectProvider<LocalLimiter> localLimiter,
                                 MeterRegistry meterRegistry) {
         this.redisTemplate = redisTemplate;
+        this.scripts = scripts;
         this.rateLimitScript = rateLimitScript;
+        this.hotKeys = hotKeys.getIfAvailable();
+        this.slotBatches = slotBatches.getIfAvailable();
+        this.localLimiter = localLimiter.getIfAvailable();
         this.totalRequests = meterRegistry.counter("ratelimit.requests.total");
         this.redisErrors = meterRegistry.counter("ratelimit.redis.errors");
         this.redisTimer = Timer.builder("ratelimit.redis.latency")
@@ -41,10 +61,22 @@ public class RateLimitGrpcService extends RateLimitServiceGrpc.RateLimitServiceI
     public void limit(LimitRequest request, StreamObserver<LimitResponse> responseObserver) {
         String key = request.getKey();
         totalRequests.increment();
+        if (localLimiter != null && localLimiter.handles(key)) {
+            responseObserver.onNext(LimitResponse.newBuilder().setCount(localLimiter.increment(key)).build());
+            responseObserver.onCompleted();
+            return;
+        }
         long start = System.nanoTime();
-        redisTemplate.execute(rateLimitScript, List.of(key), List.of("1"))
-                .single()
-                .doOnTerminate(() -> redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+        Mono<Long> result;
+        if (hotKeys != null && hotKeys.isHot(key)) {
+            result = hotKeys.limit(key);
+        } else {
+            result = scripts.execute(rateLimitScript, List.of(key), List.of("1"));
+            if (hotKeys != null) {
+                result = hotKeys.unsplit(key, result);
+            }
+        }
+        result.doOnTerminate(() -> redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
                 .map(count -> LimitResponse.newBuilder().setCount(count).build())
                 .subscribe(response -> {
                     responseObserver.onNext(response);
@@ -57,8 +89,20 @@ public class RateLimitGrpcService extends RateLimitServiceGrpc.RateLimitServiceI
 
     @Override
     public void reset(ResetRequest request, StreamObserver<ResetResponse> responseObserver) {
-        redisTemplate.delete(request.getKeysList().toArray(new String[0]))
-                .defaultIfEmpty(0L)
+        List<String> keys = request.getKeysList();
+        if (localLimiter != null) {
+            localLimiter.reset(keys);
+        }
+        if (hotKeys != null) {
+            // A key may have been split in an earlier window; its sub-keys hold part of its count.
+            keys = new ArrayList<>(keys);
+            keys.addAll(hotKeys.subKeys(request.getKeysList()));
+        }
+        // Through the proxy, one DEL only succeeds if every key is in the same slot.
+        Mono<Long> result = slotBatches != null
+                ? slotBatches.delete(keys)
+                : redisTemplate.delete(keys.toArray(new String[0]));
+        result.defaultIfEmpty(0L)
                 .map(deleted -> ResetResponse.newBuilder().setDeleted(deleted).build())
                 .subscribe(response -> {
                     responseObserver.onNext(response);
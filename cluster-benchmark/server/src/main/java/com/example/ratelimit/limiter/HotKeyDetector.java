@@ -0,0 +1,184 @@
+package com.example.ratelimit.limiter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.config.RateLimitProperties;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+/**
+ * Finds the keys that carry a large share of the traffic, over a sliding window of about two
+ * {@code ratelimit.hot-keys.window}s.
+ * <p>
+ * One request in {@code sample-every} is fed to a {@link SpaceSaving} sketch. At the end of each window the keys
+ * whose guaranteed share of the sampled requests reaches {@code threshold} join the hot set, and the sketch is
+ * halved rather than cleared, so each window still weighs half as much in the next. A hot key only leaves the
+ * set after {@code cooldown} windows in a row below the threshold, so a key near the threshold does not flap
+ * between split and unsplit counting. For {@code carry-over} after a key is split or merged back, its old
+ * counters may still hold part of the current rate-limit window, which {@link HotKeySplitter} adds in.
+ * Lookups read immutable snapshots, so the request path never waits for the sketch. Exported as
+ * {@code ratelimit.hotkeys.share{key}} for the current hot keys and {@code ratelimit.hotkeys.active}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit.hot-keys", name = "enabled", havingValue = "true")
+public class HotKeyDetector {
+
+    /** Windows with fewer samples than this never declare a key hot. */
+    private static final long MIN_SAMPLES = 100;
+
+    private final RateLimitProperties.HotKeys config;
+    private final SpaceSaving sketch;
+    private final MultiGauge shares;
+    private final long carryOverNanos;
+    private long sampled;
+    private volatile Map<String, HotKey> hot = Map.of();
+    /** Keys that stopped being hot, with the {@link System#nanoTime} they did, kept for {@code carry-over}. */
+    private volatile Map<String, Long> merged = Map.of();
+
+    private Disposable rotateTask;
+
+    public HotKeyDetector(RateLimitProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.getHotKeys();
+        this.sketch = new SpaceSaving(config.getCapacity());
+        this.carryOverNanos = config.getCarryOver().toNanos();
+        this.shares = MultiGauge.builder("ratelimit.hotkeys.share")
+                .description("Share of the requests taken by each hot key in the last window")
+                .register(meterRegistry);
+        Gauge.builder("ratelimit.hotkeys.active", this, detector -> detector.hot.size())
+                .description("Keys currently split across slots")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        rotateTask = Flux.interval(config.getWindow())
+                .onBackpressureDrop()
+                .subscribe(tick -> rotate());
+    }
+
+    @PreDestroy
+    void stop() {
+        if (rotateTask != null) {
+            rotateTask.dispose();
+        }
+    }
+
+    /**
+     * Counts one request for {@code key}, subject to sampling.
+     */
+    public void record(String key) {
+        if (config.getSampleEvery() > 1 && ThreadLocalRandom.current().nextInt(config.getSampleEvery()) != 0) {
+            return;
+        }
+        synchronized (this) {
+            sketch.offer(key);
+            sampled++;
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hot.containsKey(key);
+    }
+
+    /**
+     * @return whether {@code key} is hot and became so less than {@code carry-over} ago, so its unsplit counter
+     * may still hold part of the current rate-limit window
+     */
+    public boolean splitRecently(String key) {
+        HotKey state = hot.get(key);
+        return state != null && System.nanoTime() - state.since < carryOverNanos;
+    }
+
+    /**
+     * @return whether {@code key} stopped being hot less than {@code carry-over} ago, so its sub-keys may still
+     * hold part of the current rate-limit window
+     */
+    public boolean mergedRecently(String key) {
+        Long since = merged.get(key);
+        return since != null && System.nanoTime() - since < carryOverNanos;
+    }
+
+    /**
+     * @return the current hot keys with their share of the sliding window, heaviest first
+     */
+    public Map<String, Double> hotKeys() {
+        Map<String, Double> shares = new LinkedHashMap<>();
+        hot.forEach((key, state) -> shares.put(key, state.share));
+        return shares;
+    }
+
+    private void rotate() {
+        List<SpaceSaving.Counter> top;
+        long total;
+        synchronized (this) {
+            top = sketch.top();
+            total = sampled;
+            sketch.decay();
+            sampled >>= 1;
+        }
+        long now = System.nanoTime();
+        Map<String, HotKey> current = hot;
+        Map<String, HotKey> next = new LinkedHashMap<>();
+        if (total >= MIN_SAMPLES) {
+            for (SpaceSaving.Counter counter : top) {
+                if (next.size() >= config.getMaxHotKeys()) {
+                    break;
+                }
+                double share = (double) counter.guaranteed() / total;
+                HotKey state = current.get(counter.key);
+                if (share >= config.getThreshold()) {
+                    next.put(counter.key, new HotKey(state != null ? state.since : now, share, 0));
+                } else if (state != null && state.misses + 1 < config.getCooldown()) {
+                    next.put(counter.key, new HotKey(state.since, share, state.misses + 1));
+                }
+            }
+        }
+        // Hot keys the sketch no longer tracks, or every key after a quiet window, still get their cooldown.
+        for (Map.Entry<String, HotKey> entry : current.entrySet()) {
+            HotKey state = entry.getValue();
+            if (next.size() < config.getMaxHotKeys() && !next.containsKey(entry.getKey())
+                    && state.misses + 1 < config.getCooldown()) {
+                next.put(entry.getKey(), new HotKey(state.since, 0, state.misses + 1));
+            }
+        }
+        Map<String, Long> nextMerged = new HashMap<>();
+        merged.forEach((key, since) -> {
+            if (now - since < carryOverNanos && !next.containsKey(key)) {
+                nextMerged.put(key, since);
+            }
+        });
+        current.keySet().forEach(key -> {
+            if (!next.containsKey(key)) {
+                nextMerged.put(key, now);
+            }
+        });
+        hot = next;
+        merged = nextMerged;
+        List<MultiGauge.Row<?>> rows = new ArrayList<>(next.size());
+        next.forEach((key, state) -> rows.add(MultiGauge.Row.of(Tags.of("key", key), state.share)));
+        shares.register(rows, true);
+    }
+
+    /**
+     * @param since  {@link System#nanoTime} the key became hot
+     * @param share  guaranteed share of the sliding window
+     * @param misses windows in a row the key has been below the threshold
+     */
+    private record HotKey(long since, double share, int misses) {
+    }
+}
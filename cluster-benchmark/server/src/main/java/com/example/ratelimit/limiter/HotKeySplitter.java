@@ -0,0 +1,141 @@
+package com.example.ratelimit.limiter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+import io.lettuce.core.cluster.SlotHash;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Spreads the counter of a hot key over {@code shards} sub-keys so that one key no longer pins one master.
+ * <p>
+ * Sub-key {@code i} is {@code {tag_i}key}: Redis Cluster hashes only the first {@code {...}} of a key, and
+ * {@code tag_i} is chosen to fall into the i-th equal slice of the 16384 slots, the ranges
+ * {@code redis-cli --cluster create} hands to the masters in order. Each request counts on one random sub-key.
+ * With the {@code APPROXIMATE} policy the window count is that sub-key's count times the number of shards;
+ * {@code EXACT} adds up the other sub-keys with GETs sent in parallel, which is exact up to requests racing
+ * with the reads.
+ * <p>
+ * Switching keeps the count continuous: for {@code carry-over} after a key is split, the count of its unsplit
+ * counter is added in, and for {@code carry-over} after it is merged back, the sum of its sub-keys is.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit.hot-keys", name = "enabled", havingValue = "true")
+public class HotKeySplitter {
+
+    private final HotKeyDetector detector;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ScriptExecutor scripts;
+    private final RedisScript<Long> rateLimitScript;
+    private final RateLimitProperties.HotKeys.Policy policy;
+    private final String[] tags;
+    private final Counter splitRequests;
+
+    public HotKeySplitter(HotKeyDetector detector,
+                          ReactiveStringRedisTemplate redisTemplate,
+                          ScriptExecutor scripts,
+                          RedisScript<Long> rateLimitScript,
+                          RateLimitProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.detector = detector;
+        this.redisTemplate = redisTemplate;
+        this.scripts = scripts;
+        this.rateLimitScript = rateLimitScript;
+        this.policy = properties.getHotKeys().getPolicy();
+        this.tags = slotTags(properties.getHotKeys().getShards());
+        this.splitRequests = meterRegistry.counter("ratelimit.hotkeys.split.requests");
+    }
+
+    public boolean isHot(String key) {
+        return detector.isHot(key);
+    }
+
+    /**
+     * Counts one request for a key that {@link #isHot is hot} on one of its sub-keys.
+     *
+     * @return the window count
+     */
+    public Mono<Long> limit(String key) {
+        detector.record(key);
+        splitRequests.increment();
+        int shard = ThreadLocalRandom.current().nextInt(tags.length);
+        Mono<Long> own = scripts.execute(rateLimitScript, List.of(subKey(key, shard)), List.of("1"));
+        Mono<Long> count;
+        if (policy == RateLimitProperties.HotKeys.Policy.APPROXIMATE) {
+            count = own.map(value -> value * tags.length);
+        } else {
+            Flux<Long> others = Flux.range(0, tags.length)
+                    .filter(i -> i != shard)
+                    .flatMap(i -> get(subKey(key, i)));
+            count = Mono.zip(own, others.reduce(0L, Long::sum), Long::sum);
+        }
+        return detector.splitRecently(key) ? Mono.zip(count, get(key).defaultIfEmpty(0L), Long::sum) : count;
+    }
+
+    /**
+     * Records one request for a key that is not hot, counted on its own key as {@code count}.
+     *
+     * @return {@code count}, plus what its sub-keys still hold if the key was merged back within {@code carry-over}
+     */
+    public Mono<Long> unsplit(String key, Mono<Long> count) {
+        detector.record(key);
+        if (!detector.mergedRecently(key)) {
+            return count;
+        }
+        Mono<Long> split = Flux.range(0, tags.length)
+                .flatMap(i -> get(subKey(key, i)))
+                .reduce(0L, Long::sum);
+        return Mono.zip(count, split, Long::sum);
+    }
+
+    /**
+     * @return every sub-key {@code keys} may have been split into, for Reset
+     */
+    public List<String> subKeys(Collection<String> keys) {
+        List<String> subKeys = new ArrayList<>(keys.size() * tags.length);
+        for (String key : keys) {
+            for (int i = 0; i < tags.length; i++) {
+                subKeys.add(subKey(key, i));
+            }
+        }
+        return subKeys;
+    }
+
+    private Mono<Long> get(String key) {
+        return redisTemplate.opsForValue().get(key).map(Long::parseLong);
+    }
+
+    private String subKey(String key, int shard) {
+        return "{" + tags[shard] + "}" + key;
+    }
+
+    /**
+     * Finds one short hash tag per equal slice of the slot space.
+     */
+    static String[] slotTags(int shards) {
+        String[] tags = new String[shards];
+        int found = 0;
+        for (int candidate = 0; found < shards; candidate++) {
+            String tag = "hk" + candidate;
+            int slice = SlotHash.getSlot(tag) * shards / SlotHash.SLOT_COUNT;
+            if (tags[slice] == null) {
+                tags[slice] = tag;
+                found++;
+            }
+        }
+        return tags;
+    }
+}
@@ -0,0 +1,412 @@
+package com.example.ratelimit.limiter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Approximate limiter that answers from memory, for {@code ratelimit.local.enabled}.
+ * <p>
+ * Each key has {@link LongAdder}s, whose striped cells let request threads count without contending: a running
+ * total, with an offset that only the sync task moves, and one per local window, replaced when the window rolls
+ * over. With {@code sync=NONE} the instance counts its own share over local windows and reports it times
+ * {@code instances}, so each of N instances enforces limit/N of the traffic that Envoy happens to send it. With
+ * {@code sync=REDIS}, every sync interval the deltas since the last flush are added to the key's Redis counter
+ * with one script call per key, all in flight together. The reported count is then the global total from that
+ * flush plus what this instance counted since. Other instances' requests therefore show up one interval late,
+ * and a window that rolls over in Redis is seen at the next flush. If no flush of a key has succeeded for a whole window, its last global count belongs to a
+ * window Redis has expired by now, so the key is counted as with {@code sync=NONE} until a flush goes through
+ * again; only the requests of the current local window are then flushed.
+ * <p>
+ * {@code ratelimit.local.classes} sets {@code sync} and {@code sync-interval} per key prefix, so that key
+ * classes can sit at different points of the accuracy/latency tradeoff; the sync task then ticks at the
+ * shortest interval and flushes each key when its own interval is due.
+ * <p>
+ * Exported as {@code ratelimit.local.requests}, {@code ratelimit.local.keys},
+ * {@code ratelimit.local.sync.latency} and {@code ratelimit.local.sync.errors} (failed flushes, also logged
+ * when they start and stop failing).
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit.local", name = "enabled", havingValue = "true")
+public class LocalLimiter {
+
+    private final RateLimitProperties.Local config;
+    private final ScriptExecutor scripts;
+    private final RedisScript<Long> rateLimitIncrByScript;
+    private static final Logger log = LoggerFactory.getLogger(LocalLimiter.class);
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Tuning defaults;
+    /** By prefix, longest first. */
+    private final List<Map.Entry<String, Tuning>> classes = new ArrayList<>();
+    private final Duration tick;
+    private final long windowMillis;
+    private final String windowSeconds;
+    private final Counter requests;
+    private final Timer syncTimer;
+    private final Counter syncErrors;
+    /** Whether the last sync had failed flushes; only read and written by the sync task. */
+    private boolean failing;
+
+    private Disposable syncTask;
+
+    public LocalLimiter(RateLimitProperties properties,
+                        ScriptExecutor scripts,
+                        RedisScript<Long> rateLimitIncrByScript,
+                        MeterRegistry meterRegistry) {
+        this.config = properties.getLocal();
+        this.scripts = scripts;
+        this.rateLimitIncrByScript = rateLimitIncrByScript;
+        this.windowMillis = config.getWindow().toMillis();
+        this.windowSeconds = Long.toString(Math.max(1, config.getWindow().toSeconds()));
+        this.defaults = new Tuning(config.getSync(), config.getSyncInterval());
+        Duration shortest = config.getSyncInterval();
+        for (Map.Entry<String, RateLimitProperties.Local.KeyClass> entry : config.getClasses().entrySet()) {
+            RateLimitProperties.Local.KeyClass keyClass = entry.getValue();
+            Tuning tuning = new Tuning(keyClass.getSync() != null ? keyClass.getSync() : defaults.sync,
+                    keyClass.getSyncInterval() != null ? keyClass.getSyncInterval() : config.getSyncInterval());
+            classes.add(Map.entry(entry.getKey(), tuning));
+            if (keyClass.getSyncInterval() != null && keyClass.getSyncInterval().compareTo(shortest) < 0) {
+                shortest = keyClass.getSyncInterval();
+            }
+        }
+        classes.sort(Comparator.comparingInt((Map.Entry<String, Tuning> entry) -> entry.getKey().length()).reversed());
+        this.tick = shortest;
+        this.requests = meterRegistry.counter("ratelimit.local.requests");
+        this.syncTimer = Timer.builder("ratelimit.local.sync.latency")
+                .description("Time taken to flush local deltas to Redis")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.syncErrors = meterRegistry.counter("ratelimit.local.sync.errors");
+        Gauge.builder("ratelimit.local.keys", slots, Map::size)
+                .description("Keys counted locally")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        // Also runs with sync=NONE, to drop keys that went idle.
+        syncTask = Flux.interval(tick)
+                .onBackpressureDrop()
+                .concatMap(tick -> sync(System.currentTimeMillis()), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (syncTask != null) {
+            syncTask.dispose();
+        }
+    }
+
+    /**
+     * @return whether {@code key} is counted locally rather than in Redis
+     */
+    public boolean handles(String key) {
+        List<String> prefixes = config.getKeyPrefixes();
+        if (prefixes.isEmpty()) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return tuning(key) != defaults;
+    }
+
+    /**
+     * Counts one request for {@code key}.
+     *
+     * @return the estimated count of the key in the current window, across all instances
+     */
+    public long increment(String key) {
+        return increment(key, System.currentTimeMillis());
+    }
+
+    long increment(String key, long now) {
+        requests.increment();
+        long window = now / windowMillis;
+        Slot slot;
+        Window current;
+        while (true) {
+            slot = slots.computeIfAbsent(key, k -> new Slot(tuning(k), window, now));
+            current = slot.current;
+            if (current.id != window) {
+                current = slot.rollOver(window);
+            }
+            // In the window object read here, so a request racing a rollover counts in exactly one window; and
+            // before the total, so a request the sync task finds in the total is in a window too.
+            current.count.increment();
+            slot.total.increment();
+            if (!slot.retired) {
+                break;
+            }
+            // The sync task is dropping this slot and may already have read its counts; count on the next one.
+            current.count.decrement();
+            slot.total.decrement();
+            Thread.onSpinWait();
+        }
+        if (slot.tuning.sync == RateLimitProperties.Local.Sync.REDIS && now - slot.syncedAt < windowMillis) {
+            return slot.total.sum() + slot.offset;
+        }
+        if (!slot.local) {
+            slot.local = true;
+        }
+        return current.count.sum() * config.getInstances();
+    }
+
+    /**
+     * Forgets {@code keys} on this instance; the Redis counters are deleted by the caller.
+     */
+    public void reset(List<String> keys) {
+        keys.forEach(slots::remove);
+    }
+
+    Mono<Void> sync(long nowMillis) {
+        long window = nowMillis / windowMillis;
+        slots.forEach((key, slot) -> {
+            if (slot.current.id < window - 1 && slot.total.sum() == slot.settled) {
+                retire(key, slot);
+            }
+        });
+        long now = System.nanoTime();
+        List<Map.Entry<String, Slot>> due = new ArrayList<>();
+        slots.forEach((key, slot) -> {
+            if (slot.tuning.sync != RateLimitProperties.Local.Sync.REDIS) {
+                slot.settled = slot.total.sum();
+            } else if (now - slot.lastFlush >= slot.tuning.syncIntervalNanos) {
+                slot.lastFlush = now;
+                due.add(Map.entry(key, slot));
+            }
+        });
+        if (due.isEmpty()) {
+            return Mono.empty();
+        }
+        long start = System.nanoTime();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        return Flux.fromIterable(due)
+                .flatMap(entry -> flush(entry.getKey(), entry.getValue(), nowMillis)
+                        .doOnNext(global -> succeeded.incrementAndGet())
+                        .onErrorResume(error -> {
+                            syncErrors.increment();
+                            if (failed.getAndIncrement() == 0) {
+                                firstError.set(error);
+                            }
+                            return Mono.empty();
+                        }))
+                .then()
+                .doOnTerminate(() -> syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                .doOnSuccess(ignored -> report(succeeded.get(), failed.get(), firstError.get()))
+                .onErrorResume(error -> {
+                    log.warn("Local limiter sync failed", error);
+                    return Mono.empty();
+                });
+    }
+
+    private void report(int succeeded, int failed, Throwable firstError) {
+        if (failed > 0 && !failing) {
+            log.warn("Local limiter: {} flushes to Redis failed; keys fall back to local windows after {} ms without "
+                    + "a successful flush", failed, windowMillis, firstError);
+        } else if (failed == 0 && succeeded > 0 && failing) {
+            log.warn("Local limiter: flushes to Redis succeed again");
+        }
+        if (succeeded + failed > 0) {
+            failing = failed > 0;
+        }
+    }
+
+    private Tuning tuning(String key) {
+        for (Map.Entry<String, Tuning> entry : classes) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return defaults;
+    }
+
+    /**
+     * Drops a slot that was idle for a whole window with nothing left to flush, unless a request counts on it
+     * meanwhile. A request increments and then reads {@code retired}; this sets {@code retired} and then reads
+     * the total. Either this sees the increment and keeps the slot, or the request sees the flag, takes its
+     * increments back and retries on a fresh slot once this one is gone.
+     */
+    private void retire(String key, Slot slot) {
+        slot.retired = true;
+        if (slot.total.sum() == slot.settled) {
+            slots.remove(key, slot);
+        } else {
+            slot.retired = false;
+        }
+    }
+
+    private Mono<Long> flush(String key, Slot slot, long nowMillis) {
+        long window = nowMillis / windowMillis;
+        // Read before the windows: every request in this total has counted in one of them by now.
+        long total = slot.total.sum();
+        Window current = slot.current;
+        if (slot.local) {
+            // Requests of local windows that already ended while Redis was unreachable are not carried into its window.
+            current.previous = null;
+        }
+        List<Window> windows = new ArrayList<>();
+        for (Window w = current; w != null; w = w.previous) {
+            windows.add(w);
+        }
+        long[] counts = new long[windows.size()];
+        long delta = 0;
+        for (int i = 0; i < counts.length; i++) {
+            Window w = windows.get(i);
+            counts[i] = w.count.sum();
+            if (!slot.local || w.id == window) {
+                delta += counts[i] - w.flushed;
+            }
+        }
+        if (delta < 0) {
+            // A request backed out of a slot after its count was flushed; later requests on the slot make up for it.
+            return Mono.empty();
+        }
+        if (delta == 0) {
+            slot.settle(windows, counts, total, window);
+            return Mono.empty();
+        }
+        return scripts.execute(rateLimitIncrByScript, List.of(key), List.of(windowSeconds, Long.toString(delta)))
+                .doOnNext(global -> {
+                    slot.settle(windows, counts, total, window);
+                    slot.synced(total, global, nowMillis);
+                });
+    }
+
+    /**
+     * Count of one key: {@code total + offset} while synced with Redis, the count of {@code current} while counted
+     * locally. {@code total} is only ever incremented by requests; the sync task moves {@code offset} with a single
+     * write, so a reader sees either the previous flush or the new one.
+     * <p>
+     * What is left to flush is kept per window rather than derived from {@code total}: with sync=REDIS the windows
+     * not flushed yet stay linked from {@code current}, each with the count the sync task has flushed of it, so
+     * every request is flushed exactly once, or dropped with its window while counted locally.
+     */
+    private static final class Slot {
+
+        final Tuning tuning;
+        final LongAdder total = new LongAdder();
+        /** The latest local window a request counted in. */
+        volatile Window current;
+        /** Redis count of the last flush minus {@code total} read before it. */
+        volatile long offset;
+        /** Whether the slot is counted in local windows: always with sync=NONE, and with sync=REDIS while flushes
+         * fail. */
+        volatile boolean local;
+        /** When a flush of this slot last succeeded, or when it was created; epoch millis. */
+        volatile long syncedAt;
+        /** {@code total} when nothing was left to flush; written by the sync task only. */
+        long settled;
+        /** Set while the sync task is removing the slot; requests that see it count on a new slot instead. */
+        volatile boolean retired;
+        /** {@link System#nanoTime} of the last flush attempt; sync task only. */
+        long lastFlush;
+
+        Slot(Tuning tuning, long window, long now) {
+            this.tuning = tuning;
+            this.lastFlush = System.nanoTime();
+            this.current = new Window(window, null);
+            this.syncedAt = now;
+        }
+
+        /**
+         * Starts local window {@code window} unless it or a later one has started already; only the first requests
+         * of a window take the lock.
+         *
+         * @return the window to count in
+         */
+        synchronized Window rollOver(long window) {
+            if (current.id < window) {
+                current = new Window(window, tuning.sync == RateLimitProperties.Local.Sync.REDIS ? current : null);
+            }
+            return current;
+        }
+
+        /**
+         * Records what a flush covered: {@code counts} of {@code windows} (newest first), and so everything up to
+         * {@code total}. Windows ended for more than a whole window are unlinked once flushed; only a request stalled
+         * that long between reading {@code current} and counting could still count in them.
+         */
+        void settle(List<Window> windows, long[] counts, long total, long window) {
+            for (int i = 0; i < counts.length; i++) {
+                windows.get(i).flushed = counts[i];
+                if (i > 0 && windows.get(i).id < window - 1) {
+                    windows.get(i - 1).previous = null;
+                    break;
+                }
+            }
+            settled = total;
+        }
+
+        /**
+         * Takes the global count of a successful flush; {@code syncedAt} goes last, so a request that sees it
+         * also sees the new offset.
+         */
+        synchronized void synced(long flushedTotal, long global, long now) {
+            offset = global - flushedTotal;
+            local = false;
+            syncedAt = now;
+        }
+    }
+
+    /**
+     * Requests of one key in one local window, {@code id} being the window's start divided by its length.
+     */
+    private static final class Window {
+
+        final long id;
+        final LongAdder count = new LongAdder();
+        /** The window before, while it may still have requests to flush; sync=REDIS only. */
+        volatile Window previous;
+        /** Part of {@code count} already flushed; sync task only. */
+        long flushed;
+
+        Window(long id, Window previous) {
+            this.id = id;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * Settings of one key class.
+     */
+    private record Tuning(RateLimitProperties.Local.Sync sync, long syncIntervalNanos) {
+
+        Tuning(RateLimitProperties.Local.Sync sync, Duration syncInterval) {
+            this(sync, syncInterval.toNanos());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.ratelimit.limiter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy-hitters sketch (Metwally et al.) over a fixed number of counters. A key that is not
+ * tracked replaces the smallest counter and inherits its count as error, so every key with a true count above
+ * {@code total / capacity} is guaranteed to be tracked, and {@code count - error} is a lower bound of its true
+ * count. Not thread-safe.
+ */
+final class SpaceSaving {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+
+    SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    void offer(String key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(key, 1, 0));
+            return;
+        }
+        // Linear scan: only reached for an untracked key, and the detector feeds sampled traffic only.
+        Counter min = null;
+        for (Counter candidate : counters.values()) {
+            if (min == null || candidate.count < min.count) {
+                min = candidate;
+            }
+        }
+        counters.remove(min.key);
+        counters.put(key, new Counter(key, min.count + 1, min.count));
+    }
+
+    /**
+     * @return copies of the tracked counters, heaviest first
+     */
+    List<Counter> top() {
+        List<Counter> top = new ArrayList<>(counters.size());
+        for (Counter counter : counters.values()) {
+            top.add(new Counter(counter.key, counter.count, counter.error));
+        }
+        top.sort(Comparator.comparingLong((Counter counter) -> counter.count).reversed());
+        return top;
+    }
+
+    /**
+     * Halves every count and error, dropping counters that reach zero, so that older traffic fades out instead
+     * of being forgotten at once. Halving both keeps {@code count - error} a lower bound, up to rounding.
+     */
+    void decay() {
+        Iterator<Counter> it = counters.values().iterator();
+        while (it.hasNext()) {
+            Counter counter = it.next();
+            counter.count >>= 1;
+            counter.error >>= 1;
+            if (counter.count == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    static final class Counter {
+
+        final String key;
+        long count;
+        long error;
+
+        private Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * @return a lower bound of the key's true count
+         */
+        long guaranteed() {
+            return count - error;
+        }
+    }
+}
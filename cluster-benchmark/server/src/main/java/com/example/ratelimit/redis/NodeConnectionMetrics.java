@@ -0,0 +1,112 @@
+package com.example.ratelimit.redis;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.lettuce.core.cluster.event.AskRedirectionEvent;
+import io.lettuce.core.cluster.event.ClusterTopologyChangedEvent;
+import io.lettuce.core.cluster.event.MovedRedirectionEvent;
+import io.lettuce.core.event.Event;
+import io.lettuce.core.event.EventBus;
+import io.lettuce.core.event.cluster.AdaptiveRefreshTriggeredEvent;
+import io.lettuce.core.event.connection.ConnectionActivatedEvent;
+import io.lettuce.core.event.connection.ConnectionDeactivatedEvent;
+import io.lettuce.core.event.connection.ConnectionEvent;
+import io.lettuce.core.event.connection.ReconnectFailedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import reactor.core.Disposable;
+
+/**
+ * Connection and topology events from the Lettuce event bus, per Redis node:
+ * <ul>
+ *     <li>{@code lettuce.connections.active{remote}}: open connections to the node</li>
+ *     <li>{@code lettuce.connection.events{remote,event}}: {@code activated}, {@code deactivated} and
+ *     {@code reconnect-failed} events</li>
+ *     <li>{@code lettuce.cluster.redirects{type}}: MOVED and ASK replies the cluster client followed</li>
+ *     <li>{@code lettuce.cluster.refresh.triggers{trigger}}: adaptive topology refreshes by cause</li>
+ *     <li>{@code lettuce.cluster.topology.changes}: refreshes that found a different topology</li>
+ * </ul>
+ * Command counts and latency per node come from Lettuce's own {@code lettuce.command.*} timers, tagged with the
+ * same {@code remote}. In proxy routing every connection has the proxy as its remote.
+ */
+public final class NodeConnectionMetrics implements MeterBinder, AutoCloseable {
+
+    private final EventBus eventBus;
+    private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+    private Disposable subscription;
+
+    public NodeConnectionMetrics(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        subscription = eventBus.get().subscribe(this::onEvent);
+    }
+
+    private void onEvent(Event event) {
+        MeterRegistry registry = this.registry;
+        if (event instanceof ConnectionActivatedEvent activated) {
+            String remote = remote(activated);
+            activeConnections(registry, remote).incrementAndGet();
+            connectionEvent(registry, remote, "activated").increment();
+        } else if (event instanceof ConnectionDeactivatedEvent deactivated) {
+            String remote = remote(deactivated);
+            activeConnections(registry, remote).decrementAndGet();
+            connectionEvent(registry, remote, "deactivated").increment();
+        } else if (event instanceof ReconnectFailedEvent failed) {
+            connectionEvent(registry, remote(failed), "reconnect-failed").increment();
+        } else if (event instanceof MovedRedirectionEvent) {
+            registry.counter("lettuce.cluster.redirects", "type", "moved").increment();
+        } else if (event instanceof AskRedirectionEvent) {
+            registry.counter("lettuce.cluster.redirects", "type", "ask").increment();
+        } else if (event instanceof AdaptiveRefreshTriggeredEvent triggered) {
+            registry.counter("lettuce.cluster.refresh.triggers", "trigger", triggered.getRefreshTrigger().name())
+                    .increment();
+        } else if (event instanceof ClusterTopologyChangedEvent) {
+            registry.counter("lettuce.cluster.topology.changes").increment();
+        }
+    }
+
+    private AtomicInteger activeConnections(MeterRegistry registry, String remote) {
+        return active.computeIfAbsent(remote, node -> {
+            AtomicInteger count = new AtomicInteger();
+            Gauge.builder("lettuce.connections.active", count, AtomicInteger::get)
+                    .description("Open Lettuce connections per Redis node")
+                    .tag("remote", node)
+                    .register(registry);
+            return count;
+        });
+    }
+
+    private static Counter connectionEvent(MeterRegistry registry, String remote, String event) {
+        return Counter.builder("lettuce.connection.events")
+                .description("Lettuce connection lifecycle events per Redis node")
+                .tag("remote", remote)
+                .tag("event", event)
+                .register(registry);
+    }
+
+    private static String remote(ConnectionEvent event) {
+        SocketAddress address = event.remoteAddress();
+        if (address instanceof InetSocketAddress inet) {
+            return inet.getHostString() + ":" + inet.getPort();
+        }
+        return String.valueOf(address);
+    }
+
+    @Override
+    public void close() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.ratelimit.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.config.RateLimitProperties;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.AsyncExecutions;
+import io.lettuce.core.codec.StringCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the rate-limit Lua scripts by SHA1, so script bodies stay off the hot path.
+ * <p>
+ * With {@code ratelimit.cluster.routing=DIRECT} every script is registered with SCRIPT LOAD on each upstream
+ * node of the cluster client's topology at startup, and called with EVALSHA through the same client, which
+ * sends it to the master owning the first key. A NOSCRIPT reply (after SCRIPT FLUSH, a restart, or a failover
+ * to a replica that never saw the load) loads the script on every upstream node again, once for all concurrent
+ * callers, and the call is retried.
+ * <p>
+ * With {@code PROXY} routing the app sees the proxy as a single node and cannot address the masters, so scripts
+ * cannot be loaded on each of them. Calls then go through {@link ReactiveStringRedisTemplate}, whose EVALSHA
+ * falls back to EVAL and sends the body to whichever master is missing the script; the counters below stay at
+ * zero.
+ * <p>
+ * Exported as {@code ratelimit.script.loads} (one per node loaded), {@code ratelimit.script.load.bytes} and
+ * {@code ratelimit.script.noscript.recoveries}, tagged with the routing.
+ */
+@Component
+public class ScriptExecutor implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(ScriptExecutor.class);
+
+    private final RateLimitProperties.Cluster.Routing routing;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    /** Only with DIRECT routing. */
+    private final StatefulRedisClusterConnection<String, String> connection;
+    /** Script body by SHA1. */
+    private final Map<String, String> scripts = new ConcurrentHashMap<>();
+    private final Map<String, Mono<Void>> reloads = new ConcurrentHashMap<>();
+
+    private final Counter loads;
+    private final Counter loadBytes;
+    private final Counter recoveries;
+    private final Counter redisErrors;
+
+    public ScriptExecutor(RateLimitProperties properties,
+                          ReactiveStringRedisTemplate redisTemplate,
+                          ObjectProvider<RedisClusterClient> rateLimitClusterClient,
+                          List<RedisScript<?>> scripts,
+                          MeterRegistry meterRegistry) {
+        this.routing = properties.getCluster().getRouting();
+        this.redisTemplate = redisTemplate;
+        this.connection = routing == RateLimitProperties.Cluster.Routing.DIRECT
+                ? rateLimitClusterClient.getObject().connect(StringCodec.UTF8)
+                : null;
+        for (RedisScript<?> script : scripts) {
+            this.scripts.put(script.getSha1(), script.getScriptAsString());
+        }
+        this.loads = Counter.builder("ratelimit.script.loads")
+                .description("SCRIPT LOAD calls sent to Redis nodes")
+                .tag("routing", routing.name())
+                .register(meterRegistry);
+        this.loadBytes = Counter.builder("ratelimit.script.load.bytes")
+                .description("Script body bytes sent to Redis; flat at steady state")
+                .baseUnit("bytes")
+                .tag("routing", routing.name())
+                .register(meterRegistry);
+        this.recoveries = Counter.builder("ratelimit.script.noscript.recoveries")
+                .description("Calls that found their script missing in Redis and reloaded it")
+                .tag("routing", routing.name())
+                .register(meterRegistry);
+        this.redisErrors = meterRegistry.counter("ratelimit.redis.errors");
+    }
+
+    @PreDestroy
+    void close() {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Loads every script on every upstream node. A failure is logged and counted in {@code ratelimit.redis.errors}
+     * but does not stop startup: the first call recovers through the NOSCRIPT path once Redis is reachable.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (connection == null) {
+            log.info("Routing {}: scripts cannot be loaded on each master through the proxy; EVALSHA falls back to EVAL",
+                    routing);
+            return;
+        }
+        Flux.fromIterable(scripts.values())
+                .flatMap(this::loadEverywhere)
+                .then()
+                .subscribe(null, error -> {
+                    redisErrors.increment();
+                    log.warn("Preloading {} scripts on the cluster masters failed; calls will load them on NOSCRIPT",
+                            scripts.size(), error);
+                });
+    }
+
+    /**
+     * Runs {@code script}, which must return an integer, with {@code keys} and {@code args}.
+     */
+    public Mono<Long> execute(RedisScript<Long> script, List<String> keys, List<String> args) {
+        if (connection == null) {
+            return redisTemplate.execute(script, keys, args).single();
+        }
+        String[] keyArray = keys.toArray(new String[0]);
+        String[] argArray = args.toArray(new String[0]);
+        return evalsha(script, keyArray, argArray)
+                .onErrorResume(RedisNoScriptException.class, error -> {
+                    recoveries.increment();
+                    return reload(script).then(evalsha(script, keyArray, argArray));
+                });
+    }
+
+    private Mono<Long> evalsha(RedisScript<Long> script, String[] keys, String[] args) {
+        return connection.reactive().<Long>evalsha(script.getSha1(), ScriptOutputType.INTEGER, keys, args).single();
+    }
+
+    private Mono<Void> reload(RedisScript<?> script) {
+        return reloads.computeIfAbsent(script.getSha1(), sha -> {
+            scripts.putIfAbsent(sha, script.getScriptAsString());
+            return loadEverywhere(script.getScriptAsString()).doFinally(signal -> reloads.remove(sha)).cache();
+        });
+    }
+
+    /**
+     * SCRIPT LOAD on every upstream node of the current topology.
+     */
+    private Mono<Void> loadEverywhere(String body) {
+        return Mono.defer(() -> {
+            AsyncExecutions<String> executions = connection.async().upstream().commands().scriptLoad(body);
+            int nodes = executions.nodes().size();
+            loads.increment(nodes);
+            loadBytes.increment((double) nodes * body.getBytes(StandardCharsets.UTF_8).length);
+            return Mono.fromFuture(CompletableFuture.allOf(executions.futures()));
+        });
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.ratelimit.redis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.stereotype.Component;
+
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.output.IntegerOutput;
+import io.lettuce.core.protocol.AsyncCommand;
+import io.lettuce.core.protocol.Command;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandType;
+import io.lettuce.core.protocol.RedisCommand;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs multi-key operations against the cluster masters instead of the proxy.
+ * <p>
+ * Keys are grouped by hash slot, so one command per slot stays legal in cluster mode, and slots by the master
+ * that owns them in the client's cached topology. Each master gets all of its slot commands in a single
+ * write on its own connection, and the masters are written to in parallel, so a 100-key call costs one round
+ * trip per master rather than one per key through a single proxy connection. A slot that has moved since
+ * the topology was read answers {@code MOVED} or {@code ASK}: the executor refreshes the topology (one
+ * refresh at a time) and resends that slot through the cluster connection, which follows redirects itself.
+ * <p>
+ * Exported as {@code ratelimit.cluster.batch.latency} and {@code ratelimit.cluster.redirects}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit.cluster", name = "enabled", havingValue = "true")
+public class SlotBatchExecutor {
+
+    private final RedisClusterClient client;
+    private final StatefulRedisClusterConnection<String, String> connection;
+    private final Duration timeout;
+    private final AtomicReference<CompletableFuture<Void>> refresh = new AtomicReference<>();
+    private final Timer batchTimer;
+    private final Counter redirects;
+
+    public SlotBatchExecutor(RedisClusterClient rateLimitClusterClient,
+                             RedisProperties properties,
+                             MeterRegistry meterRegistry) {
+        this.client = rateLimitClusterClient;
+        this.connection = rateLimitClusterClient.connect(StringCodec.UTF8);
+        this.timeout = properties.getTimeout() != null ? properties.getTimeout() : Duration.ofSeconds(1);
+        this.batchTimer = Timer.builder("ratelimit.cluster.batch.latency")
+                .description("Time taken by a slot-grouped multi-key operation across all masters")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.redirects = meterRegistry.counter("ratelimit.cluster.redirects");
+    }
+
+    @PreDestroy
+    void close() {
+        connection.close();
+    }
+
+    /**
+     * Deletes {@code keys} with one DEL per slot.
+     *
+     * @return the number of keys deleted
+     */
+    public Mono<Long> delete(Collection<String> keys) {
+        return execute(keys, slotKeys -> new Command<>(CommandType.DEL, new IntegerOutput<>(StringCodec.UTF8),
+                new CommandArgs<>(StringCodec.UTF8).addKeys(slotKeys)))
+                .reduce(0L, Long::sum);
+    }
+
+    /**
+     * Sends {@code command} once per slot of {@code keys}, with that slot's keys.
+     *
+     * @param command builds a fresh command for the keys of one slot; called again if the slot is redirected
+     * @return one result per slot, in completion order
+     */
+    public <T> Flux<T> execute(Collection<String> keys, Function<List<String>, RedisCommand<String, String, T>> command) {
+        Map<RedisClusterNode, List<List<String>>> byNode = new LinkedHashMap<>();
+        for (List<String> slotKeys : groupBySlot(keys).values()) {
+            RedisClusterNode master = connection.getPartitions().getMasterBySlot(SlotHash.getSlot(slotKeys.get(0)));
+            if (master == null) {
+                // Slot not covered by the cached topology; let the cluster connection route it.
+                byNode.computeIfAbsent(null, node -> new ArrayList<>()).add(slotKeys);
+            } else {
+                byNode.computeIfAbsent(master, node -> new ArrayList<>()).add(slotKeys);
+            }
+        }
+        long start = System.nanoTime();
+        return Flux.fromIterable(byNode.entrySet())
+                .flatMap(entry -> entry.getKey() == null
+                        ? Flux.fromIterable(entry.getValue()).flatMap(slotKeys -> viaCluster(slotKeys, command))
+                        : onNode(entry.getKey(), entry.getValue(), command))
+                .doOnTerminate(() -> batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    private <T> Flux<T> onNode(RedisClusterNode node, List<List<String>> slots,
+                               Function<List<String>, RedisCommand<String, String, T>> command) {
+        return Mono.fromCompletionStage(() -> connection.getConnectionAsync(node.getNodeId()))
+                .flatMapMany(nodeConnection -> {
+                    List<AsyncCommand<String, String, T>> batch = new ArrayList<>(slots.size());
+                    for (List<String> slotKeys : slots) {
+                        batch.add(new AsyncCommand<>(command.apply(slotKeys)));
+                    }
+                    // One write and one flush for every slot this master owns.
+                    nodeConnection.dispatch(batch);
+                    List<Mono<T>> results = new ArrayList<>(batch.size());
+                    for (int i = 0; i < batch.size(); i++) {
+                        List<String> slotKeys = slots.get(i);
+                        results.add(Mono.fromCompletionStage(batch.get(i))
+                                .timeout(timeout)
+                                .onErrorResume(SlotBatchExecutor::isRedirect, error -> redirected(slotKeys, command)));
+                    }
+                    return Flux.merge(results);
+                });
+    }
+
+    private <T> Mono<T> redirected(List<String> slotKeys, Function<List<String>, RedisCommand<String, String, T>> command) {
+        redirects.increment();
+        return Mono.fromCompletionStage(this::refreshTopology)
+                .then(viaCluster(slotKeys, command));
+    }
+
+    private <T> Mono<T> viaCluster(List<String> slotKeys, Function<List<String>, RedisCommand<String, String, T>> command) {
+        return Mono.defer(() -> {
+            AsyncCommand<String, String, T> retry = new AsyncCommand<>(command.apply(slotKeys));
+            connection.dispatch(retry);
+            return Mono.fromCompletionStage(retry);
+        }).timeout(timeout);
+    }
+
+    /**
+     * Starts a topology refresh unless one is already running, so a burst of redirects reads the topology once.
+     */
+    private CompletableFuture<Void> refreshTopology() {
+        while (true) {
+            CompletableFuture<Void> current = refresh.get();
+            if (current != null && !current.isDone()) {
+                return current;
+            }
+            CompletableFuture<Void> next = new CompletableFuture<>();
+            if (refresh.compareAndSet(current, next)) {
+                client.refreshPartitionsAsync().whenComplete((done, error) -> next.complete(null));
+                return next;
+            }
+        }
+    }
+
+    private static Map<Integer, List<String>> groupBySlot(Collection<String> keys) {
+        Map<Integer, List<String>> slots = new LinkedHashMap<>();
+        for (String key : keys) {
+            slots.computeIfAbsent(SlotHash.getSlot(key), slot -> new ArrayList<>()).add(key);
+        }
+        return slots;
+    }
+
+    private static boolean isRedirect(Throwable error) {
+        if (!(error instanceof RedisCommandExecutionException) || error.getMessage() == null) {
+            return false;
+        }
+        return error.getMessage().startsWith("MOVED") || error.getMessage().startsWith("ASK");
+    }
+}
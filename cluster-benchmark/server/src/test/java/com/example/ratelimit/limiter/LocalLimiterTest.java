@@ -0,0 +1,170 @@
+package com.example.ratelimit.limiter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+class LocalLimiterTest {
+
+    private static final long WINDOW_MILLIS = 1000;
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 2000;
+
+    /** Stands in for the INCRBY script: adds each delta to one counter, or fails while {@code down}. */
+    private final AtomicLong redisCount = new AtomicLong();
+    private volatile boolean down;
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private LocalLimiter limiter(RateLimitProperties.Local.Sync sync) {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getLocal().setSync(sync);
+        properties.getLocal().setInstances(1);
+        properties.getLocal().setWindow(Duration.ofMillis(WINDOW_MILLIS));
+        // Every sync call flushes every key.
+        properties.getLocal().setSyncInterval(Duration.ofNanos(1));
+        ScriptExecutor scripts = mock(ScriptExecutor.class);
+        when(scripts.execute(any(RedisScript.class), anyList(), anyList())).thenAnswer(invocation -> {
+            if (down) {
+                return Mono.error(new IllegalStateException("redis down"));
+            }
+            List<String> args = invocation.getArgument(2);
+            return Mono.just(redisCount.addAndGet(Long.parseLong(args.get(1))));
+        });
+        return new LocalLimiter(properties, scripts, mock(RedisScript.class), new SimpleMeterRegistry());
+    }
+
+    /** Runs {@code PER_THREAD} increments of {@code key} on each thread, all released at once. */
+    private void hammer(LocalLimiter limiter, String key, long now) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < PER_THREAD; i++) {
+                    limiter.increment(key, now);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void requestsStartingAWindowTogetherAllCountInIt() throws Exception {
+        LocalLimiter limiter = limiter(RateLimitProperties.Local.Sync.NONE);
+        for (int i = 0; i < 5; i++) {
+            limiter.increment("k", 500);
+        }
+
+        hammer(limiter, "k", WINDOW_MILLIS + 500);
+
+        assertThat(limiter.increment("k", WINDOW_MILLIS + 600)).isEqualTo(THREADS * PER_THREAD + 1);
+    }
+
+    @Test
+    void requestsOfTheWindowRedisMissedAreFlushedOnceItIsBack() throws Exception {
+        LocalLimiter limiter = limiter(RateLimitProperties.Local.Sync.REDIS);
+        down = true;
+        // Created at 0 and never synced, so counted locally from the second window on.
+        limiter.increment("k", 0);
+        for (int i = 0; i < 3; i++) {
+            limiter.increment("k", WINDOW_MILLIS + 500);
+        }
+        limiter.sync(WINDOW_MILLIS + 600).block();
+
+        hammer(limiter, "k", 2 * WINDOW_MILLIS + 500);
+        down = false;
+        limiter.sync(2 * WINDOW_MILLIS + 600).block();
+
+        // Only the current window: the first two went to windows Redis has expired meanwhile.
+        assertThat(redisCount.get()).isEqualTo(THREADS * PER_THREAD);
+    }
+
+    @Test
+    void everyRequestIsFlushedOnceAcrossRolloversAndConcurrentSyncs() throws Exception {
+        LocalLimiter limiter = limiter(RateLimitProperties.Local.Sync.REDIS);
+        AtomicLong clock = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                long counted = 0;
+                while (!stop.get()) {
+                    limiter.increment("k", clock.get());
+                    counted++;
+                }
+                return counted;
+            }));
+        }
+        // Ten windows, each rolled over while requests are counting and flushed over four syncs. A window lasts
+        // 80ms of real time, far longer than a request takes even when descheduled; only a request stalled for
+        // a whole window may count in one that has been dropped already.
+        for (int i = 0; i < 40; i++) {
+            limiter.sync(clock.addAndGet(WINDOW_MILLIS / 4)).block();
+            Thread.sleep(20);
+        }
+        stop.set(true);
+        long counted = 0;
+        for (Future<Long> future : futures) {
+            counted += future.get(30, TimeUnit.SECONDS);
+        }
+        limiter.sync(clock.get()).block();
+
+        assertThat(redisCount.get()).isEqualTo(counted);
+    }
+
+    @Test
+    void idleSlotIsRetiredOnlyOnceItsRequestsAreFlushed() {
+        LocalLimiter limiter = limiter(RateLimitProperties.Local.Sync.REDIS);
+        for (int i = 0; i < 3; i++) {
+            limiter.increment("k", 0);
+        }
+        down = true;
+        limiter.sync(3 * WINDOW_MILLIS).block();
+        // Idle for over a window but not flushed yet: kept, and flushed when Redis is back.
+        limiter.sync(3 * WINDOW_MILLIS + 100).block();
+        down = false;
+        limiter.sync(3 * WINDOW_MILLIS + 200).block();
+        assertThat(redisCount.get()).isEqualTo(3);
+
+        // Nothing left to flush: dropped, and the next request starts from the global count again.
+        limiter.sync(3 * WINDOW_MILLIS + 300).block();
+        redisCount.addAndGet(10);
+        limiter.increment("k", 3 * WINDOW_MILLIS + 400);
+        limiter.sync(3 * WINDOW_MILLIS + 500).block();
+        assertThat(redisCount.get()).isEqualTo(14);
+        assertThat(limiter.increment("k", 3 * WINDOW_MILLIS + 600)).isEqualTo(15);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.ratelimit.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.example.ratelimit.config.RateLimitProperties;
+
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.AsyncExecutions;
+import io.lettuce.core.cluster.api.async.AsyncNodeSelection;
+import io.lettuce.core.cluster.api.async.NodeSelectionAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisAdvancedClusterReactiveCommands;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+import io.lettuce.core.codec.StringCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+class ScriptExecutorTest {
+
+    private static final int MASTERS = 3;
+
+    private final RedisScript<Long> script = RedisScript.of("return redis.call('INCR', KEYS[1])", Long.class);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RedisAdvancedClusterReactiveCommands<String, String> reactive = mock();
+    private final NodeSelectionAsyncCommands<String, String> upstream = mock();
+    private ScriptExecutor executor;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StatefulRedisClusterConnection<String, String> connection = mock();
+        RedisAdvancedClusterAsyncCommands<String, String> async = mock();
+        AsyncNodeSelection<String, String> selection = mock();
+        RedisClusterClient client = mock();
+        ObjectProvider<RedisClusterClient> clientProvider = mock();
+        when(clientProvider.getObject()).thenReturn(client);
+        when(client.connect(StringCodec.UTF8)).thenReturn(connection);
+        when(connection.reactive()).thenReturn(reactive);
+        when(connection.async()).thenReturn(async);
+        when(async.upstream()).thenReturn(selection);
+        when(selection.commands()).thenReturn(upstream);
+
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getCluster().setRouting(RateLimitProperties.Cluster.Routing.DIRECT);
+        executor = new ScriptExecutor(properties, mock(ReactiveStringRedisTemplate.class), clientProvider,
+                List.of(script), meterRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AsyncExecutions<String> onMasters(CompletableFuture<String> reply) {
+        AsyncExecutions<String> executions = mock();
+        when(executions.nodes()).thenReturn(List.of(new RedisClusterNode(), new RedisClusterNode(), new RedisClusterNode()));
+        when(executions.futures()).thenReturn(new CompletableFuture[] { reply, reply, reply });
+        return executions;
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).counter().count();
+    }
+
+    @Test
+    void preloadsEveryScriptOnEveryMaster() {
+        AsyncExecutions<String> loaded = onMasters(CompletableFuture.completedFuture(script.getSha1()));
+        when(upstream.scriptLoad(anyString())).thenReturn(loaded);
+
+        executor.afterSingletonsInstantiated();
+
+        assertThat(counter("ratelimit.script.loads")).isEqualTo(MASTERS);
+        assertThat(counter("ratelimit.script.load.bytes"))
+                .isEqualTo(MASTERS * script.getScriptAsString().getBytes(StandardCharsets.UTF_8).length);
+        assertThat(counter("ratelimit.redis.errors")).isZero();
+    }
+
+    @Test
+    void failedPreloadIsCountedAsAnError() {
+        AsyncExecutions<String> failed = onMasters(CompletableFuture.failedFuture(new RedisConnectionException("down")));
+        when(upstream.scriptLoad(anyString())).thenReturn(failed);
+
+        executor.afterSingletonsInstantiated();
+
+        assertThat(counter("ratelimit.redis.errors")).isEqualTo(1);
+    }
+
+    @Test
+    void noScriptReloadsOnEveryMasterAndRetriesByShaOnly() {
+        AsyncExecutions<String> loaded = onMasters(CompletableFuture.completedFuture(script.getSha1()));
+        when(upstream.scriptLoad(anyString())).thenReturn(loaded);
+        when(reactive.<Long>evalsha(eq(script.getSha1()), eq(ScriptOutputType.INTEGER), any(String[].class),
+                any(String[].class)))
+                .thenReturn(Flux.error(new RedisNoScriptException("NOSCRIPT No matching script")))
+                .thenReturn(Flux.just(7L));
+
+        Long count = executor.execute(script, List.of("key"), List.of("1")).block();
+
+        assertThat(count).isEqualTo(7);
+        assertThat(counter("ratelimit.script.noscript.recoveries")).isEqualTo(1);
+        assertThat(counter("ratelimit.script.loads")).isEqualTo(MASTERS);
+    }
+}
@@ -0,0 +1,68 @@
+#!/bin/bash
+# Runs the same key distribution against every rate-limit algorithm and samples Redis memory per key.
+# Usage: ./algorithm_compare.sh [envoy_target] [main_class]
+
+set -euo pipefail
+
+ENVOY_TARGET="${1:-localhost:9091}"
+MAIN_CLASS="${2:-com.example.ratelimit.client.HundredKeyBenchmark}"
+REDIS_CONTAINER="redis-benchmark"
+THREADS=8
+WARMUP_SECONDS=5
+TEST_DURATION=30
+ALGORITHMS=(FIXED_WINDOW SLIDING_WINDOW_LOG SLIDING_WINDOW_COUNTER TOKEN_BUCKET GCRA)
+
+GREEN='\033[0;32m'
+YELLOW='\033[1;33m'
+BLUE='\033[0;34m'
+NC='\033[0m' # No Color
+
+RESULTS_FILE="algorithm_compare_results_$(date +%Y%m%d_%H%M%S).txt"
+echo "Results will be saved to: $RESULTS_FILE"
+
+{
+    echo "=========================================="
+    echo "Algorithm Comparison Results"
+    echo "Started: $(date)"
+    echo "Target: $ENVOY_TARGET"
+    echo "Scenario: $MAIN_CLASS"
+    echo "=========================================="
+    echo ""
+} > "$RESULTS_FILE"
+
+# Average MEMORY USAGE over up to 100 live keys of one run. Keys expire within a window or two, so this
+# has to be sampled while the benchmark is still sending.
+memory_per_key() {
+    local prefix=$1
+    docker exec "$REDIS_CONTAINER" sh -c \
+        "redis-cli --scan --pattern '${prefix}*' | head -100 | while read -r k; do redis-cli MEMORY USAGE \"\$k\"; done" \
+        | awk '{ sum += $1; n++ } END { if (n > 0) printf "%.1f bytes/key over %d keys", sum / n, n; else print "no keys found" }'
+}
+
+cd client
+
+for algorithm in "${ALGORITHMS[@]}"; do
+    key_prefix="algo_${algorithm}_"
+    echo -e "${YELLOW}━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━${NC}"
+    echo -e "${GREEN}Testing: ${algorithm}${NC}"
+    echo -e "${YELLOW}━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━${NC}"
+
+    echo "ALGORITHM: $algorithm" >> "../$RESULTS_FILE"
+    memory_file=$(mktemp)
+    # Gradle startup plus warmup plus half of the first measured phase.
+    (sleep $((15 + WARMUP_SECONDS + TEST_DURATION / 2)) && memory_per_key "$key_prefix" > "$memory_file") &
+    sampler=$!
+
+    ./gradlew run -Dratelimit.algorithm="$algorithm" \
+        --args="$ENVOY_TARGET $key_prefix $THREADS $TEST_DURATION $WARMUP_SECONDS" \
+        -PmainClass="$MAIN_CLASS" 2>&1 | grep --line-buffered "mode=" | tee -a "../$RESULTS_FILE"
+
+    wait "$sampler" || true
+    echo "memory: $(cat "$memory_file")" | tee -a "../$RESULTS_FILE"
+    rm -f "$memory_file"
+    echo "" >> "../$RESULTS_FILE"
+done
+
+cd ..
+
+echo -e "${BLUE}Algorithm comparison completed. Full results saved to: $RESULTS_FILE${NC}"
@@ -1,33 +1,101 @@
 package com.example.ratelimit.client;
 
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.LockSupport;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.LongAdder;
-import java.util.function.IntSupplier;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import com.example.ratelimit.grpc.Algorithm;
+import com.example.ratelimit.grpc.LimitBatchEntry;
+import com.example.ratelimit.grpc.LimitBatchRequest;
+import com.example.ratelimit.grpc.LimitBatchResponse;
 import com.example.ratelimit.grpc.LimitRequest;
+import com.example.ratelimit.grpc.LimitResponse;
 import com.example.ratelimit.grpc.RateLimitServiceGrpc;
 import com.example.ratelimit.grpc.ResetRequest;
 
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.stub.StreamObserver;
-import org.HdrHistogram.Recorder;
 
 public class BenchmarkClient {
 
     private static final int DEFAULT_THREADS = 8;
     private static final int DEFAULT_DURATION_SECONDS = 60;
     private static final int DEFAULT_WARMUP_SECONDS = 5;
-    private static final double HOT_KEY_RATIO = 0.90;
+    private static final int MAX_RESET_KEYS = 100_000;
+    private static final int RESET_CHUNK = 1_000;
+
+    /**
+     * If true, every response count is compared with the exact per-window count and the accuracy drift is
+     * reported next to the latency percentiles. Meant for runs against the server's near-cache tier.
+     */
+    private static final boolean TRACK_DRIFT = Boolean.parseBoolean(System.getProperty("ratelimit.trackDrift", "false"));
+
+    /**
+     * Which RPC drives the load: unary Limit, LimitBatch with {@link #BATCH_SIZE} keys per call, or one
+     * LimitStream per sender thread. Target RPS always counts keys checked, so the modes are comparable.
+     */
+    private static final RpcMode RPC_MODE = RpcMode.valueOf(System.getProperty("ratelimit.rpc", "UNARY").toUpperCase(Locale.ROOT));
+
+    private static final int BATCH_SIZE = Integer.parseInt(System.getProperty("ratelimit.batchSize", "3"));
+
+    /**
+     * Rate-limit algorithm requested from the server for unary and stream calls. LimitBatch always uses
+     * the fixed-window script.
+     */
+    private static final Algorithm ALGORITHM = Algorithm.valueOf(
+            System.getProperty("ratelimit.algorithm", "ALGORITHM_UNSPECIFIED").toUpperCase(Locale.ROOT));
+
+    /**
+     * Per-request limit and window sent with every call; 0 keeps the server defaults. LimitBatch entries carry
+     * the limit only. Denied responses are counted separately from failures in the summary line.
+     */
+    private static final long LIMIT = Long.getLong("ratelimit.limit", 0L);
+
+    private static final long WINDOW_MILLIS = Long.getLong("ratelimit.windowMillis", 0L);
+
+    /**
+     * If true, unary calls reuse one prebuilt request per key and a ring of response observers instead of
+     * building both per call; see {@link UnaryCalls}. Streams always keep their pending calls in a ring.
+     */
+    private static final boolean PREBUILT = Boolean.parseBoolean(System.getProperty("ratelimit.prebuilt", "false"));
+
+    /**
+     * Slots per sender thread for pending calls, rounded up to a power of two. Bounds the in-flight calls one
+     * thread can track without allocating.
+     */
+    private static final int RING_SIZE = Integer.getInteger("ratelimit.ringSize", 16_384);
+
+    /**
+     * How phases are driven: the scenario's RPS ladder, a capacity search starting from its first rate, or
+     * closed loop at each of the {@link #CONCURRENCY} levels.
+     */
+    private static final LoadMode LOAD = LoadMode.valueOf(System.getProperty("ratelimit.load", "LADDER").toUpperCase(Locale.ROOT));
+
+    /** Comma-separated in-flight limits for {@code CLOSED}, one phase each. */
+    private static final String CONCURRENCY = System.getProperty("ratelimit.concurrency", "64,256,1024");
+
+    /** A phase meets the SLO if its p99 stays at or under this, errors at or under {@link #SLO_ERROR_RATE}... */
+    private static final double SLO_P99_MILLIS = Double.parseDouble(System.getProperty("ratelimit.sloP99Ms", "100"));
+
+    private static final double SLO_ERROR_RATE = Double.parseDouble(System.getProperty("ratelimit.sloErrorRate", "0.01"));
+
+    /** ...and the client sent at least this close to the target, so a client-bound rate never passes. */
+    private static final double SLO_BEHIND_PERCENT = Double.parseDouble(System.getProperty("ratelimit.sloBehindPercent", "5"));
+
+    /** The search stops once the passing and failing rates are within this fraction of each other. */
+    private static final double SEARCH_PRECISION = Double.parseDouble(System.getProperty("ratelimit.searchPrecision", "0.05"));
+
+    private static final int SEARCH_MAX_STEPS = Integer.getInteger("ratelimit.searchMaxSteps", 12);
+
+    private static final LimitRequest REQUEST_TEMPLATE = LimitRequest.newBuilder()
+            .setAlgorithm(ALGORITHM)
+            .setLimit(LIMIT)
+            .setWindowMillis(WINDOW_MILLIS)
+            .build();
 
     public enum KeyMode {
         SINGLE,
@@ -35,6 +103,21 @@ public class BenchmarkClient {
         HUNDRED_KEYS_HOT
     }
 
+    public enum LoadMode {
+        /** Fixed open-loop rates, the scenario's RPS list. */
+        LADDER,
+        /** Open-loop capacity search for the highest rate within the SLO. */
+        SEARCH,
+        /** Fixed concurrency, no rate: measures peak throughput. */
+        CLOSED
+    }
+
+    public enum RpcMode {
+        UNARY,
+        BATCH,
+        STREAM
+    }
+
     public static void run(String[] args, KeyMode mode, int[] targetRpsList) throws InterruptedException {
         String target = getArg(args, 0, "localhost:9091");
         String keyPrefix = getArg(args, 1, "key");
@@ -42,182 +125,501 @@ public class BenchmarkClient {
         int durationSeconds = Integer.parseInt(getArg(args, 3, String.valueOf(DEFAULT_DURATION_SECONDS)));
         int warmupSeconds = Integer.parseInt(getArg(args, 4, String.valueOf(DEFAULT_WARMUP_SECONDS)));
 
-        ManagedChannel channel = ManagedChannelBuilder.forTarget(target)
-                .usePlaintext()
-                .build();
-
-        RateLimitServiceGrpc.RateLimitServiceStub stub = RateLimitServiceGrpc.newStub(channel);
-        RateLimitServiceGrpc.RateLimitServiceBlockingStub blockingStub = RateLimitServiceGrpc.newBlockingStub(channel);
-
-        resetKeys(blockingStub, keyPrefix, mode);
-        runWarmup(stub, keyPrefix, mode, threads, warmupSeconds, targetRpsList);
-        for (int rps : targetRpsList) {
-            runBenchmark(stub, keyPrefix, mode, threads, durationSeconds, rps);
-            System.out.println("Cooling down for 5 seconds...");
-            Thread.sleep(5000);
+        KeyGenerator keys = KeyGenerator.create(mode, keyPrefix);
+        try (ChannelPool pool = new ChannelPool(target); TimeSeries timeSeries = TimeSeries.fromProperties()) {
+            resetKeys(pool.blockingStub(), keys);
+            runWarmup(pool, timeSeries, keys, threads, warmupSeconds, targetRpsList);
+            switch (LOAD) {
+                case LADDER -> {
+                    for (int rps : targetRpsList) {
+                        runBenchmark(pool, timeSeries, keys, threads, durationSeconds, rps);
+                        coolDown();
+                    }
+                }
+                case SEARCH -> searchCapacity(pool, timeSeries, keys, threads, durationSeconds, targetRpsList[0]);
+                case CLOSED -> {
+                    for (String level : CONCURRENCY.split(",")) {
+                        int concurrency = Integer.parseInt(level.strip());
+                        runBenchmarkInternal("closed-c" + concurrency, pool, timeSeries, keys, threads, durationSeconds,
+                                0, concurrency);
+                        coolDown();
+                    }
+                }
+            }
         }
-
-        channel.shutdown();
-        channel.awaitTermination(10, TimeUnit.SECONDS);
     }
 
-    private static void runWarmup(RateLimitServiceGrpc.RateLimitServiceStub stub,
-            String keyPrefix,
-            KeyMode mode,
+    private static void runWarmup(ChannelPool pool,
+            TimeSeries timeSeries,
+            KeyGenerator keys,
             int threads,
             int warmupSeconds,
             int[] targetRpsList) throws InterruptedException {
         int warmupRps = targetRpsList[0];
-        runBenchmarkInternal("warmup", stub, keyPrefix, mode, threads, warmupSeconds, warmupRps);
+        runBenchmarkInternal("warmup", pool, timeSeries, keys, threads, warmupSeconds, warmupRps, 0);
     }
 
-    private static void runBenchmark(RateLimitServiceGrpc.RateLimitServiceStub stub,
-            String keyPrefix,
-            KeyMode mode,
+    private static PhaseResult runBenchmark(ChannelPool pool,
+            TimeSeries timeSeries,
+            KeyGenerator keys,
             int threads,
             int durationSeconds,
             int targetRps) throws InterruptedException {
-        runBenchmarkInternal("benchmark", stub, keyPrefix, mode, threads, durationSeconds, targetRps);
+        return runBenchmarkInternal("benchmark", pool, timeSeries, keys, threads, durationSeconds, targetRps, 0);
     }
 
-    private static void runBenchmarkInternal(String phase,
-            RateLimitServiceGrpc.RateLimitServiceStub stub,
-            String keyPrefix,
-            KeyMode mode,
+    /**
+     * Finds the highest target rate that still meets the SLO: doubles the rate from {@code startRps} until a
+     * phase misses, then bisects between the last pass and the first miss until they are within
+     * {@link #SEARCH_PRECISION} of each other.
+     */
+    private static void searchCapacity(ChannelPool pool,
+            TimeSeries timeSeries,
+            KeyGenerator keys,
             int threads,
             int durationSeconds,
-            int targetRps) throws InterruptedException {
+            int startRps) throws InterruptedException {
+        int passing = 0;
+        int failing = 0;
+        PhaseResult best = null;
+        int rps = startRps;
+        for (int step = 0; step < SEARCH_MAX_STEPS; step++) {
+            PhaseResult result = runBenchmarkInternal("search", pool, timeSeries, keys, threads, durationSeconds, rps, 0);
+            String verdict = result.meetsSlo() ? "PASS" : "FAIL (" + result.sloViolation() + ")";
+            System.out.printf(Locale.US, "search step=%d targetRps=%d %s%n", step + 1, rps, verdict);
+            if (result.meetsSlo()) {
+                passing = rps;
+                best = result;
+            } else {
+                failing = rps;
+            }
+            coolDown();
+            if (failing == 0) {
+                rps *= 2;
+            } else if (failing - passing <= Math.max(1, (int) (failing * SEARCH_PRECISION))) {
+                break;
+            } else {
+                rps = passing + (failing - passing) / 2;
+            }
+        }
+        if (best == null) {
+            System.out.printf(Locale.US, "capacity mode=%s rpc=%s maxSustainableRps<%d (slo p99<=%.0fms errors<=%.2f%%)%n",
+                    keys.label(), rpcLabel(), failing, SLO_P99_MILLIS, SLO_ERROR_RATE * 100);
+        } else {
+            System.out.printf(Locale.US,
+                    "capacity mode=%s rpc=%s maxSustainableRps=%d p99=%.3fms errors=%.2f%% firstFailingRps=%s"
+                            + " (slo p99<=%.0fms errors<=%.2f%%)%n",
+                    keys.label(), rpcLabel(), passing, best.p99Millis(), best.errorRate() * 100,
+                    failing > 0 ? Integer.toString(failing) : "none", SLO_P99_MILLIS, SLO_ERROR_RATE * 100);
+        }
+    }
+
+    private static void coolDown() throws InterruptedException {
+        System.out.println("Cooling down for 5 seconds...");
+        Thread.sleep(5000);
+    }
+
+    /**
+     * Runs one phase. With {@code concurrency > 0} the phase is closed loop: the senders keep exactly that many
+     * calls (keys, for batches) in flight and send the next one as soon as one completes, which measures peak
+     * throughput rather than latency at a given rate; {@code targetRps} is then ignored.
+     */
+    private static PhaseResult runBenchmarkInternal(String phase,
+            ChannelPool pool,
+            TimeSeries timeSeries,
+            KeyGenerator keys,
+            int threads,
+            int durationSeconds,
+            int targetRps,
+            int concurrency) throws InterruptedException {
         long durationNanos = Duration.ofSeconds(durationSeconds).toNanos();
-        long endTime = System.nanoTime() + durationNanos;
+        long start = System.nanoTime();
+        long endTime = start + durationNanos;
         int baseRps = targetRps / threads;
         int remainder = targetRps % threads;
+        int keysPerCall = RPC_MODE == RpcMode.BATCH ? BATCH_SIZE : 1;
+        boolean closedLoop = concurrency > 0;
 
         CountDownLatch done = new CountDownLatch(threads);
-        AtomicLong errors = new AtomicLong();
-        AtomicLong sent = new AtomicLong();
-        AtomicLong inflight = new AtomicLong();
-        LongAdder successCount = new LongAdder();
-        LongAdder failCount = new LongAdder();
-        LongAdder totalLatencyNanos = new LongAdder();
-        Recorder recorder = new Recorder(TimeUnit.SECONDS.toNanos(10), 3);
-
-        IntSupplier keyIndexSupplier = keyIndexSupplier(mode);
-
-        long start = System.nanoTime();
+        PhaseStats stats = new PhaseStats(TRACK_DRIFT ? new DriftTracker(keys.size()) : null,
+                closedLoop ? new Semaphore(Math.max(concurrency, keysPerCall)) : null);
+        UnaryCalls unaryCalls = PREBUILT ? new UnaryCalls(keys, REQUEST_TEMPLATE) : null;
+        TimeSeries.Phase sampler = timeSeries != null ? timeSeries.startPhase(phase, targetRps, stats) : null;
 
         try (var executor = Executors.newFixedThreadPool(threads)) {
             for (int t = 0; t < threads; t++) {
                 int threadIndex = t;
                 executor.submit(() -> {
                     int threadRps = threadIndex < remainder ? baseRps + 1 : baseRps;
-                    if (threadRps == 0) {
+                    if (threadRps == 0 && !closedLoop) {
                         while (System.nanoTime() < endTime) {
                             LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
                         }
                         done.countDown();
                         return;
                     }
-                    long intervalNanos = 1_000_000_000L / threadRps;
-                    long next = System.nanoTime();
-                    while (System.nanoTime() < endTime) {
-                        int keyIndex = keyIndexSupplier.getAsInt();
-                        String key = keyPrefix + keyIndex;
-                        LimitRequest request = LimitRequest.newBuilder().setKey(key).build();
-                        long requestStart = System.nanoTime();
-                        inflight.incrementAndGet();
-                        stub.limit(request, new StreamObserver<>() {
-                            @Override
-                            public void onNext(com.example.ratelimit.grpc.LimitResponse value) {
-                                System.out.println(value.getCount());
+                    StreamSender streamSender = RPC_MODE == RpcMode.STREAM ? new StreamSender(pool.next(), stats) : null;
+                    UnaryCalls.Ring ring = unaryCalls != null && RPC_MODE == RpcMode.UNARY
+                            ? new UnaryCalls.Ring(stats, RING_SIZE)
+                            : null;
+                    if (closedLoop) {
+                        // Closed loop: a call is sent as soon as a permit is free, so the intended and actual
+                        // send times coincide and there is no schedule to fall behind.
+                        while (System.nanoTime() < endTime && !Thread.currentThread().isInterrupted()) {
+                            if (stats.acquire(keysPerCall)) {
+                                send(pool, keys, System.nanoTime(), stats, unaryCalls, ring, streamSender);
                             }
-
-                            @Override
-                            public void onError(Throwable t) {
-                                if (errors.incrementAndGet() < 10) {
-                                    System.err.println("Request failed: " + t.getMessage());
-                                }
-                                failCount.increment();
-                                long latency = System.nanoTime() - requestStart;
-                                totalLatencyNanos.add(latency);
-                                recordLatency(recorder, latency);
-                                inflight.decrementAndGet();
+                        }
+                    } else {
+                        // Rates are in keys checked per second, so a batch of N keys is sent N times less often.
+                        long intervalNanos = 1_000_000_000L * keysPerCall / threadRps;
+                        // Open loop: call i is due at start + i * interval whatever happened to earlier calls. A
+                        // sender that falls behind sends back to back until it catches up, and latency is measured
+                        // from the due time, so a stall is charged to every call it delayed.
+                        long next = start;
+                        while (next < endTime) {
+                            long sleepNanos = next - System.nanoTime();
+                            if (sleepNanos > 0) {
+                                LockSupport.parkNanos(sleepNanos);
+                                continue;
                             }
-
-                            @Override
-                            public void onCompleted() {
-                                successCount.increment();
-                                long latency = System.nanoTime() - requestStart;
-                                totalLatencyNanos.add(latency);
-                                recordLatency(recorder, latency);
-                                inflight.decrementAndGet();
+                            if (System.nanoTime() >= endTime) {
+                                break;
                             }
-                        });
-                        sent.incrementAndGet();
-                        next += intervalNanos;
-                        long sleepNanos = next - System.nanoTime();
-                        if (sleepNanos > 0) {
-                            LockSupport.parkNanos(sleepNanos);
+                            send(pool, keys, next, stats, unaryCalls, ring, streamSender);
+                            next += intervalNanos;
                         }
+                        if (next < endTime) {
+                            stats.unsentCount.add((endTime - next + intervalNanos - 1) / intervalNanos * keysPerCall);
+                        }
+                    }
+                    if (streamSender != null) {
+                        streamSender.close();
                     }
                     done.countDown();
                 });
             }
 
             done.await();
-            while (inflight.get() > 0) {
+            while (stats.inflight.get() > 0) {
                 LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
             }
+            if (sampler != null) {
+                sampler.close();
+            } else {
+                stats.drain();
+            }
             long elapsedNanos = System.nanoTime() - start;
             double seconds = Duration.ofNanos(elapsedNanos).toMillis() / 1000.0;
-            double rps = sent.get() / seconds;
-            long completed = successCount.sum() + failCount.sum();
-            double avgMillis = completed > 0 ? (totalLatencyNanos.sum() / 1_000_000.0) / completed : 0.0;
-            var histogram = recorder.getIntervalHistogram();
-            double p95Millis = histogram.getValueAtPercentile(95.0) / 1000.0;
-            double p99Millis = histogram.getValueAtPercentile(99.0) / 1000.0;
+            long sent = stats.sent.get();
+            double rps = sent / seconds;
+            double avgMillis = stats.averageLatencyMillis();
+            double p95Millis = stats.total.getValueAtPercentile(95.0) / 1000.0;
+            double p99Millis = stats.total.getValueAtPercentile(99.0) / 1000.0;
+            double serviceP99Millis = stats.serviceTotal.getValueAtPercentile(99.0) / 1000.0;
+            // Rate achieved over the send window only, against the target; the drain time is excluded.
+            double sendRps = sent / (durationNanos / 1e9);
+            double behindPercent = targetRps > 0 ? Math.max(0.0, 100.0 * (1.0 - sendRps / targetRps)) : 0.0;
 
             System.out.printf(Locale.US,
-                    "%s mode=%s targetRps=%d total=%d success=%d fail=%d avg=%.3fms p95=%.3fms p99=%.3fms time=%.3fs rps=%.0f%n",
-                    phase, mode.name(), targetRps, sent.get(), successCount.sum(), failCount.sum(),
-                    avgMillis, p95Millis, p99Millis, seconds, rps);
+                    "%s mode=%s rpc=%s targetRps=%s total=%d success=%d fail=%d denied=%d avg=%.3fms p95=%.3fms p99=%.3fms"
+                            + " serviceP99=%.3fms time=%.3fs rps=%.0f sendRps=%.0f behind=%.1f%% unsent=%d maxLag=%.3fms%s%n",
+                    phase, keys.label(), rpcLabel(), closedLoop ? "closed" : Integer.toString(targetRps), sent,
+                    stats.successCount.sum(), stats.failCount.sum(), stats.deniedCount.sum(),
+                    avgMillis, p95Millis, p99Millis, serviceP99Millis, seconds, rps, sendRps, behindPercent,
+                    stats.unsentCount.sum(), stats.maxLagNanos.get() / 1e6,
+                    (stats.drift != null ? " " + stats.drift.summary() : "")
+                            + (stats.ringOverflowCount.sum() > 0 ? " ringOverflow=" + stats.ringOverflowCount.sum() : ""));
+            System.out.println("  " + pool.drainSummary());
 
-            if (p99Millis > 100.0) {
+            if (p99Millis > SLO_P99_MILLIS && !closedLoop) {
                 System.out.printf(
-                        "WARNING: P99 Latency (%.3fms) Exceeded 100ms threshold! Recommended max effective RPS is likely lower than %d.%n",
-                        p99Millis, targetRps);
+                        "WARNING: P99 Latency (%.3fms) Exceeded %.0fms threshold! Recommended max effective RPS is likely lower than %d.%n",
+                        p99Millis, SLO_P99_MILLIS, targetRps);
             }
+            long completed = stats.successCount.sum() + stats.failCount.sum();
+            return new PhaseResult(p99Millis, completed > 0 ? (double) stats.failCount.sum() / completed : 0.0,
+                    behindPercent);
         }
     }
 
-    private static void recordLatency(Recorder recorder, long latencyNanos) {
-        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
-        recorder.recordValue(micros);
+    private static void send(ChannelPool pool,
+            KeyGenerator keys,
+            long intendedStart,
+            PhaseStats stats,
+            UnaryCalls unaryCalls,
+            UnaryCalls.Ring ring,
+            StreamSender streamSender) {
+        switch (RPC_MODE) {
+            case UNARY -> {
+                if (ring != null) {
+                    sendPrebuilt(pool.next(), unaryCalls, ring, keys.nextIndex(), intendedStart, stats);
+                } else {
+                    sendUnary(pool.next(), keys, keys.nextIndex(), intendedStart, stats);
+                }
+            }
+            case BATCH -> sendBatch(pool.next(), keys, intendedStart, stats);
+            case STREAM -> streamSender.send(keys, keys.nextIndex(), intendedStart);
+        }
     }
 
-    private static void resetKeys(RateLimitServiceGrpc.RateLimitServiceBlockingStub blockingStub,
-            String keyPrefix,
-            KeyMode mode) {
-        List<String> keys = new ArrayList<>();
-        switch (mode) {
-            case SINGLE -> keys.add(keyPrefix + 0);
-            case HUNDRED_KEYS, HUNDRED_KEYS_HOT -> {
-                for (int i = 0; i < 100; i++) {
-                    keys.add(keyPrefix + i);
+    /**
+     * Outcome of one phase as far as the capacity search cares.
+     */
+    private record PhaseResult(double p99Millis, double errorRate, double behindPercent) {
+
+        boolean meetsSlo() {
+            return sloViolation() == null;
+        }
+
+        /**
+         * @return the first SLO the phase missed, or null
+         */
+        String sloViolation() {
+            if (p99Millis > SLO_P99_MILLIS) {
+                return String.format(Locale.US, "p99 %.3fms", p99Millis);
+            }
+            if (errorRate > SLO_ERROR_RATE) {
+                return String.format(Locale.US, "errors %.2f%%", errorRate * 100);
+            }
+            if (behindPercent > SLO_BEHIND_PERCENT) {
+                return String.format(Locale.US, "client %.1f%% behind target", behindPercent);
+            }
+            return null;
+        }
+    }
+
+    private static void sendUnary(ChannelPool.Slot channel,
+            KeyGenerator keys,
+            int keyIndex,
+            long intendedStart,
+            PhaseStats stats) {
+        LimitRequest request = LimitRequest.newBuilder()
+                .setKeyBytes(keys.key(keyIndex))
+                .setAlgorithm(ALGORITHM)
+                .setLimit(LIMIT)
+                .setWindowMillis(WINDOW_MILLIS)
+                .build();
+        long requestStart = System.nanoTime();
+        stats.started(1, intendedStart, requestStart);
+        channel.started();
+        channel.stub.limit(request, new StreamObserver<>() {
+            @Override
+            public void onNext(LimitResponse value) {
+                if (!value.getAllowed()) {
+                    stats.deniedCount.increment();
+                }
+                if (stats.drift != null) {
+                    stats.drift.record(keyIndex, value.getCount());
                 }
             }
+
+            @Override
+            public void onError(Throwable t) {
+                channel.finished();
+                stats.failed(1, intendedStart, requestStart, t);
+            }
+
+            @Override
+            public void onCompleted() {
+                channel.finished();
+                stats.succeeded(1, intendedStart, requestStart);
+            }
+        });
+    }
+
+    private static void sendPrebuilt(ChannelPool.Slot channel,
+            UnaryCalls unaryCalls,
+            UnaryCalls.Ring ring,
+            int keyIndex,
+            long intendedStart,
+            PhaseStats stats) {
+        LimitRequest request = unaryCalls.request(keyIndex);
+        long requestStart = System.nanoTime();
+        stats.started(1, intendedStart, requestStart);
+        channel.started();
+        channel.stub.limit(request, ring.next(channel, keyIndex, intendedStart, requestStart));
+    }
+
+    private static void sendBatch(ChannelPool.Slot channel,
+            KeyGenerator keys,
+            long intendedStart,
+            PhaseStats stats) {
+        int[] keyIndexes = new int[BATCH_SIZE];
+        LimitBatchRequest.Builder request = LimitBatchRequest.newBuilder();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            keyIndexes[i] = keys.nextIndex();
+            request.addEntries(LimitBatchEntry.newBuilder().setKeyBytes(keys.key(keyIndexes[i])).setCost(1).setLimit(LIMIT));
         }
-        ResetRequest request = ResetRequest.newBuilder().addAllKeys(keys).build();
-        blockingStub.reset(request);
+        long requestStart = System.nanoTime();
+        stats.started(BATCH_SIZE, intendedStart, requestStart);
+        channel.started();
+        channel.stub.limitBatch(request.build(), new StreamObserver<>() {
+            @Override
+            public void onNext(LimitBatchResponse value) {
+                for (int i = 0; i < value.getResultsCount(); i++) {
+                    if (!value.getResults(i).getAllowed()) {
+                        stats.deniedCount.increment();
+                    }
+                }
+                if (stats.drift != null) {
+                    for (int i = 0; i < value.getResultsCount(); i++) {
+                        stats.drift.record(keyIndexes[i], value.getResults(i).getCount());
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                channel.finished();
+                stats.failed(BATCH_SIZE, intendedStart, requestStart, t);
+            }
+
+            @Override
+            public void onCompleted() {
+                channel.finished();
+                stats.succeeded(BATCH_SIZE, intendedStart, requestStart);
+            }
+        });
+    }
+
+    private static String rpcLabel() {
+        return RPC_MODE == RpcMode.BATCH ? "BATCH" + BATCH_SIZE : RPC_MODE.name();
     }
 
-    private static IntSupplier keyIndexSupplier(KeyMode mode) {
-        return switch (mode) {
-            case SINGLE -> () -> 0;
-            case HUNDRED_KEYS -> () -> ThreadLocalRandom.current().nextInt(100);
-            // 90% traffic to key 0, 10% distributed among keys 1-99
-            case HUNDRED_KEYS_HOT -> () -> ThreadLocalRandom.current().nextDouble() < HOT_KEY_RATIO ? 0
-                    : 1 + ThreadLocalRandom.current().nextInt(99);
-        };
+    /**
+     * One LimitStream per sender thread. Responses can come back out of order, so each message carries a
+     * request id; the intended and actual send times and the key of request id n sit in slot {@code n & mask}
+     * of primitive arrays, so tracking a pending message allocates nothing. A slot still pending when its
+     * turn comes round again (more than {@link #RING_SIZE} in flight) is failed and counted as a ring overflow.
+     */
+    private static final class StreamSender implements StreamObserver<LimitResponse> {
+
+        private static final long FREE = -1;
+        private static final IllegalStateException RING_OVERFLOW =
+                new IllegalStateException("stream ring overflow, response no longer tracked");
+
+        private final ChannelPool.Slot channel;
+        private final PhaseStats stats;
+        private final StreamObserver<LimitRequest> requests;
+        private final LimitRequest.Builder builder = REQUEST_TEMPLATE.toBuilder();
+        /** Request id occupying each slot, or {@link #FREE}; its volatile write publishes the slot's fields. */
+        private final AtomicLongArray ids;
+        private final long[] intendedAt;
+        private final long[] sentAt;
+        private final int[] keyIndexes;
+        private final int mask;
+        private long nextId;
+
+        private StreamSender(ChannelPool.Slot channel, PhaseStats stats) {
+            this.channel = channel;
+            this.stats = stats;
+            int capacity = Integer.highestOneBit(Math.max(1, RING_SIZE - 1)) << 1;
+            this.ids = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                ids.set(i, FREE);
+            }
+            this.intendedAt = new long[capacity];
+            this.sentAt = new long[capacity];
+            this.keyIndexes = new int[capacity];
+            this.mask = capacity - 1;
+            this.requests = channel.stub.limitStream(this);
+        }
+
+        void send(KeyGenerator keys, int keyIndex, long intendedStart) {
+            long id = nextId++;
+            int slot = (int) (id & mask);
+            long previous = ids.get(slot);
+            if (previous != FREE) {
+                complete(slot, previous, RING_OVERFLOW);
+                stats.ringOverflowCount.increment();
+            }
+            long now = System.nanoTime();
+            intendedAt[slot] = intendedStart;
+            sentAt[slot] = now;
+            keyIndexes[slot] = keyIndex;
+            ids.set(slot, id);
+            stats.started(1, intendedStart, now);
+            channel.started();
+            requests.onNext(builder.setKeyBytes(keys.key(keyIndex)).setRequestId(id).build());
+        }
+
+        /**
+         * Half-closes the stream; the phase still waits for the in-flight replies via the inflight counter.
+         */
+        void close() {
+            requests.onCompleted();
+        }
+
+        @Override
+        public void onNext(LimitResponse value) {
+            long id = value.getRequestId();
+            int slot = (int) (id & mask);
+            if (ids.get(slot) != id) {
+                return;
+            }
+            int keyIndex = keyIndexes[slot];
+            if (!complete(slot, id, null)) {
+                return;
+            }
+            if (!value.getAllowed()) {
+                stats.deniedCount.increment();
+            }
+            if (stats.drift != null) {
+                stats.drift.record(keyIndex, value.getCount());
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            for (int slot = 0; slot <= mask; slot++) {
+                long id = ids.get(slot);
+                if (id != FREE) {
+                    complete(slot, id, t);
+                }
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        /**
+         * Records request {@code id} as done, unless a racing callback already did. The slot's fields are read
+         * before it is freed, since the sender may reuse it right after.
+         */
+        private boolean complete(int slot, long id, Throwable error) {
+            long intended = intendedAt[slot];
+            long sent = sentAt[slot];
+            if (!ids.compareAndSet(slot, id, FREE)) {
+                return false;
+            }
+            channel.finished();
+            if (error == null) {
+                stats.succeeded(1, intended, sent);
+            } else {
+                stats.failed(1, intended, sent, error);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Deletes the counters of every key the phase can draw, in chunks. Key spaces beyond
+     * {@link #MAX_RESET_KEYS} are not reset; use a fresh key prefix for those runs instead.
+     */
+    private static void resetKeys(RateLimitServiceGrpc.RateLimitServiceBlockingStub blockingStub, KeyGenerator keys) {
+        if (keys.size() > MAX_RESET_KEYS) {
+            System.out.printf("Not resetting %d keys; use a fresh key prefix for a clean run.%n", keys.size());
+            return;
+        }
+        for (int from = 0; from < keys.size(); from += RESET_CHUNK) {
+            ResetRequest.Builder request = ResetRequest.newBuilder();
+            for (int i = from; i < Math.min(keys.size(), from + RESET_CHUNK); i++) {
+                request.addKeysBytes(keys.key(i));
+            }
+            blockingStub.reset(request.build());
+        }
     }
 
     private static String getArg(String[] args, int index, String defaultValue) {
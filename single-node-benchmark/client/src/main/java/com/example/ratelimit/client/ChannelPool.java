@@ -0,0 +1,174 @@
+package com.example.ratelimit.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.ratelimit.grpc.RateLimitServiceGrpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.channel.Channel;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * N independent gRPC channels to the same target, each with its own HTTP/2 connection, handed out
+ * round-robin. One channel funnels every call through one connection and one event loop, which caps the
+ * client well before the server; more channels spread both the concurrent-stream limit and the framing work.
+ * <p>
+ * Each channel counts its in-flight calls so a phase can report whether load was spread evenly and whether
+ * a connection was saturated.
+ */
+final class ChannelPool implements AutoCloseable {
+
+    enum EventLoops {
+        /** All channels share one event loop group ({@link #EVENT_LOOP_THREADS} threads, Netty's default if 0). */
+        SHARED,
+        /** Every channel gets its own group of {@link #EVENT_LOOP_THREADS} threads (1 if 0). */
+        PER_CHANNEL
+    }
+
+    enum Transport {
+        NIO,
+        /** Linux native transport; fails at startup where it is unavailable. */
+        EPOLL
+    }
+
+    /** Number of channels (connections) to the target. */
+    static final int CHANNELS = Integer.getInteger("ratelimit.channels", 1);
+
+    static final EventLoops EVENT_LOOPS = EventLoops.valueOf(
+            System.getProperty("ratelimit.eventLoops", "SHARED").toUpperCase(Locale.ROOT));
+
+    static final int EVENT_LOOP_THREADS = Integer.getInteger("ratelimit.eventLoopThreads", 0);
+
+    static final Transport TRANSPORT = Transport.valueOf(
+            System.getProperty("ratelimit.transport", "NIO").toUpperCase(Locale.ROOT));
+
+    /**
+     * One channel with its stubs and call counters.
+     */
+    static final class Slot {
+
+        final RateLimitServiceGrpc.RateLimitServiceStub stub;
+        private final AtomicLong inflight = new AtomicLong();
+        private final AtomicLong peakInflight = new AtomicLong();
+        private final LongAdder calls = new LongAdder();
+
+        private Slot(RateLimitServiceGrpc.RateLimitServiceStub stub) {
+            this.stub = stub;
+        }
+
+        void started() {
+            calls.increment();
+            long current = inflight.incrementAndGet();
+            if (current > peakInflight.get()) {
+                peakInflight.accumulateAndGet(current, Math::max);
+            }
+        }
+
+        void finished() {
+            inflight.decrementAndGet();
+        }
+    }
+
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final List<EventLoopGroup> groups = new ArrayList<>();
+    private final Slot[] slots;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ChannelPool(String target) {
+        if (TRANSPORT == Transport.EPOLL && !Epoll.isAvailable()) {
+            throw new IllegalStateException("epoll transport is not available", Epoll.unavailabilityCause());
+        }
+        slots = new Slot[Math.max(1, CHANNELS)];
+        // Without an explicit group every channel uses gRPC's process-wide NIO event loops.
+        EventLoopGroup shared = EVENT_LOOPS == EventLoops.SHARED && (TRANSPORT == Transport.EPOLL || EVENT_LOOP_THREADS > 0)
+                ? newGroup(EVENT_LOOP_THREADS)
+                : null;
+        for (int i = 0; i < slots.length; i++) {
+            NettyChannelBuilder builder = NettyChannelBuilder.forTarget(target).usePlaintext();
+            EventLoopGroup group = EVENT_LOOPS == EventLoops.PER_CHANNEL
+                    ? newGroup(Math.max(1, EVENT_LOOP_THREADS))
+                    : shared;
+            if (group != null) {
+                builder.eventLoopGroup(group).channelType(channelType());
+            }
+            ManagedChannel channel = builder.build();
+            channels.add(channel);
+            slots[i] = new Slot(RateLimitServiceGrpc.newStub(channel));
+        }
+    }
+
+    /**
+     * Next channel in round-robin order.
+     */
+    Slot next() {
+        return slots[Math.floorMod(next.getAndIncrement(), slots.length)];
+    }
+
+    /**
+     * Blocking stub on the first channel, for setup calls outside the measured phases.
+     */
+    RateLimitServiceGrpc.RateLimitServiceBlockingStub blockingStub() {
+        return RateLimitServiceGrpc.newBlockingStub(channels.get(0));
+    }
+
+    /**
+     * Calls and peak in-flight calls per channel since the last call, then resets both.
+     */
+    String drainSummary() {
+        StringJoiner calls = new StringJoiner(",", "[", "]");
+        StringJoiner peaks = new StringJoiner(",", "[", "]");
+        for (Slot slot : slots) {
+            calls.add(Long.toString(slot.calls.sumThenReset()));
+            peaks.add(Long.toString(slot.peakInflight.getAndSet(slot.inflight.get())));
+        }
+        return String.format(Locale.US, "channels=%d transport=%s eventLoops=%s calls=%s peakInflight=%s",
+                slots.length, TRANSPORT, EVENT_LOOPS, calls, peaks);
+    }
+
+    /**
+     * Shuts the channels down, waiting up to 10 seconds each for in-flight calls. If interrupted while waiting,
+     * the channels are cut off at once and the interrupt flag is restored for the caller.
+     */
+    @Override
+    public void close() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdown();
+        }
+        try {
+            for (ManagedChannel channel : channels) {
+                channel.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        }
+        for (EventLoopGroup group : groups) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private EventLoopGroup newGroup(int threads) {
+        EventLoopGroup group = TRANSPORT == Transport.EPOLL ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+        groups.add(group);
+        return group;
+    }
+
+    private static Class<? extends Channel> channelType() {
+        return TRANSPORT == Transport.EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+}
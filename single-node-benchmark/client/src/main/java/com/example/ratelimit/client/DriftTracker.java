@@ -0,0 +1,45 @@
+package com.example.ratelimit.client;
+
+import java.util.Locale;
+
+/**
+ * Measures how far the counts returned by the server drift from the exact per-window count.
+ * <p>
+ * The benchmark client is the only writer during a run, so the n-th response for a key inside one
+ * server window should carry count n. A new window is detected when the returned count drops back to 1
+ * or below half of the previous count. Reordering of in-flight responses adds a little noise, which
+ * shows up as a small baseline when the server runs without the near-cache tier.
+ */
+final class DriftTracker {
+
+    private final long[] seenInWindow;
+    private final long[] lastCount;
+    private long samples;
+    private long totalAbsDrift;
+    private double totalRelDrift;
+    private long maxAbsDrift;
+
+    DriftTracker(int keys) {
+        this.seenInWindow = new long[keys];
+        this.lastCount = new long[keys];
+    }
+
+    synchronized void record(int keyIndex, long count) {
+        if (count == 1 || count < lastCount[keyIndex] / 2) {
+            seenInWindow[keyIndex] = 0;
+        }
+        lastCount[keyIndex] = count;
+        long expected = ++seenInWindow[keyIndex];
+        long drift = Math.abs(count - expected);
+        samples++;
+        totalAbsDrift += drift;
+        totalRelDrift += (double) drift / expected;
+        maxAbsDrift = Math.max(maxAbsDrift, drift);
+    }
+
+    synchronized String summary() {
+        double avgAbs = samples > 0 ? (double) totalAbsDrift / samples : 0.0;
+        double avgRel = samples > 0 ? totalRelDrift / samples * 100.0 : 0.0;
+        return String.format(Locale.US, "drift(avg=%.2f avgRel=%.2f%% max=%d)", avgAbs, avgRel, maxAbsDrift);
+    }
+}
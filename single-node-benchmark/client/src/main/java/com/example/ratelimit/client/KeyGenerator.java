@@ -0,0 +1,270 @@
+package com.example.ratelimit.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Picks the key for each request from a fixed key space. All keys are encoded to {@link ByteString} once at
+ * startup and requests take them with {@code setKeyBytes}, so drawing a key allocates nothing: no string
+ * concatenation and no UTF-8 encoding per request.
+ * <p>
+ * The scenario's {@link BenchmarkClient.KeyMode} is used unless {@code -Dratelimit.keys} picks one of:
+ * <ul>
+ *     <li>{@code UNIFORM}: every key equally likely</li>
+ *     <li>{@code ZIPF}: rank k drawn with probability proportional to 1/k^s ({@code -Dratelimit.zipfSkew})</li>
+ *     <li>{@code PARETO}: 80/20-style popularity with shape {@code -Dratelimit.paretoShape} (default 1.16, must be above 1)</li>
+ *     <li>{@code TRACE}: replays the keys of {@code -Dratelimit.keyTrace} (one key per line) in order, looping</li>
+ * </ul>
+ * Synthetic distributions use {@code -Dratelimit.keyCount} keys (default 1,000,000, at most 10,000,000); key 0
+ * is the hottest. Precomputed keys cost about 60 bytes each, so 10M keys need roughly 600 MB of heap.
+ */
+abstract class KeyGenerator {
+
+    enum Distribution {
+        UNIFORM,
+        ZIPF,
+        PARETO,
+        TRACE
+    }
+
+    static final int MAX_KEYS = 10_000_000;
+
+    private static final double HOT_KEY_RATIO = 0.90;
+
+    private final ByteString[] keys;
+    private final String label;
+
+    private KeyGenerator(ByteString[] keys, String label) {
+        this.keys = keys;
+        this.label = label;
+    }
+
+    /**
+     * Index of the next key, in {@code [0, size())}. Safe to call from any sender thread.
+     */
+    abstract int nextIndex();
+
+    final ByteString key(int index) {
+        return keys[index];
+    }
+
+    final int size() {
+        return keys.length;
+    }
+
+    /**
+     * Short description for the phase summary, e.g. {@code ZIPF(n=1000000,s=0.99)}.
+     */
+    final String label() {
+        return label;
+    }
+
+    static KeyGenerator create(BenchmarkClient.KeyMode mode, String keyPrefix) {
+        String distribution = System.getProperty("ratelimit.keys");
+        if (distribution == null || distribution.isBlank()) {
+            return forMode(mode, keyPrefix);
+        }
+        int keyCount = Integer.getInteger("ratelimit.keyCount", 1_000_000);
+        if (keyCount < 1 || keyCount > MAX_KEYS) {
+            throw new IllegalArgumentException("ratelimit.keyCount must be between 1 and " + MAX_KEYS);
+        }
+        return switch (Distribution.valueOf(distribution.toUpperCase(Locale.ROOT))) {
+            case UNIFORM -> new Uniform(encode(keyPrefix, keyCount), "UNIFORM(n=" + keyCount + ")");
+            case ZIPF -> new Zipf(encode(keyPrefix, keyCount),
+                    Double.parseDouble(System.getProperty("ratelimit.zipfSkew", "0.99")));
+            case PARETO -> new Pareto(encode(keyPrefix, keyCount),
+                    Double.parseDouble(System.getProperty("ratelimit.paretoShape", "1.16")));
+            case TRACE -> Trace.load(keyPrefix, Path.of(System.getProperty("ratelimit.keyTrace", "keys.trace")));
+        };
+    }
+
+    private static KeyGenerator forMode(BenchmarkClient.KeyMode mode, String keyPrefix) {
+        return switch (mode) {
+            case SINGLE -> new Uniform(encode(keyPrefix, 1), mode.name());
+            case HUNDRED_KEYS -> new Uniform(encode(keyPrefix, 100), mode.name());
+            // 90% traffic to key 0, 10% distributed among keys 1-99
+            case HUNDRED_KEYS_HOT -> new KeyGenerator(encode(keyPrefix, 100), mode.name()) {
+                @Override
+                int nextIndex() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    return random.nextDouble() < HOT_KEY_RATIO ? 0 : 1 + random.nextInt(99);
+                }
+            };
+        };
+    }
+
+    private static ByteString[] encode(String keyPrefix, int count) {
+        ByteString[] keys = new ByteString[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ByteString.copyFromUtf8(keyPrefix + i);
+        }
+        return keys;
+    }
+
+    private static final class Uniform extends KeyGenerator {
+
+        private final int size;
+
+        private Uniform(ByteString[] keys, String label) {
+            super(keys, label);
+            this.size = keys.length;
+        }
+
+        @Override
+        int nextIndex() {
+            return size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+        }
+    }
+
+    /**
+     * Rejection-inversion sampling (Hörmann and Derflinger, 1996): constant time per draw for any key count
+     * and skew, with no probability table.
+     */
+    private static final class Zipf extends KeyGenerator {
+
+        private final int size;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralSize;
+        private final double s;
+
+        private Zipf(ByteString[] keys, double exponent) {
+            super(keys, String.format(Locale.US, "ZIPF(n=%d,s=%.2f)", keys.length, exponent));
+            if (exponent <= 0) {
+                throw new IllegalArgumentException("ratelimit.zipfSkew must be positive");
+            }
+            this.size = keys.length;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1.0;
+            this.hIntegralSize = hIntegral(size + 0.5);
+            this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+        }
+
+        @Override
+        int nextIndex() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (true) {
+                double u = hIntegralSize + random.nextDouble() * (hIntegralX1 - hIntegralSize);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > size) {
+                    k = size;
+                }
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k - 1;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1.0 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1.0, x * (1.0 - exponent));
+            return Math.exp(helper1(t) * x);
+        }
+
+        /** log1p(x) / x, accurate near 0. */
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+        }
+
+        /** expm1(x) / x, accurate near 0. */
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+        }
+    }
+
+    /**
+     * Key popularity with the Pareto principle: the hottest fraction p of keys receives p^(1 - 1/a) of the
+     * traffic (the Pareto Lorenz curve), so a = 1.16 sends 80% of requests to 20% of keys. Drawn by inverting
+     * that curve, {@code index = n * u^(a / (a - 1))}.
+     */
+    private static final class Pareto extends KeyGenerator {
+
+        private final int size;
+        private final double power;
+
+        private Pareto(ByteString[] keys, double shape) {
+            super(keys, String.format(Locale.US, "PARETO(n=%d,a=%.2f)", keys.length, shape));
+            if (shape <= 1) {
+                throw new IllegalArgumentException("ratelimit.paretoShape must be greater than 1");
+            }
+            this.size = keys.length;
+            this.power = shape / (shape - 1.0);
+        }
+
+        @Override
+        int nextIndex() {
+            double u = ThreadLocalRandom.current().nextDouble();
+            return Math.min(size - 1, (int) (size * Math.pow(u, power)));
+        }
+    }
+
+    /**
+     * Replays a recorded key sequence. Distinct keys are encoded once and the sequence is kept as indexes;
+     * sender threads share one cursor, so the trace order is kept across threads.
+     */
+    private static final class Trace extends KeyGenerator {
+
+        private final int[] sequence;
+        private final AtomicLong cursor = new AtomicLong();
+
+        private Trace(ByteString[] keys, int[] sequence, String label) {
+            super(keys, label);
+            this.sequence = sequence;
+        }
+
+        static Trace load(String keyPrefix, Path file) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot read key trace " + file, e);
+            }
+            Map<String, Integer> indexes = new HashMap<>();
+            int[] sequence = new int[lines.size()];
+            int length = 0;
+            for (String line : lines) {
+                String key = line.strip();
+                if (!key.isEmpty()) {
+                    sequence[length++] = indexes.computeIfAbsent(key, k -> indexes.size());
+                }
+            }
+            if (length == 0) {
+                throw new IllegalArgumentException("key trace " + file + " is empty");
+            }
+            if (indexes.size() > MAX_KEYS) {
+                throw new IllegalArgumentException("key trace " + file + " has more than " + MAX_KEYS + " distinct keys");
+            }
+            ByteString[] keys = new ByteString[indexes.size()];
+            indexes.forEach((key, index) -> keys[index] = ByteString.copyFromUtf8(keyPrefix + key));
+            return new Trace(keys, Arrays.copyOf(sequence, length),
+                    "TRACE(n=" + keys.length + ",len=" + length + ")");
+        }
+
+        @Override
+        int nextIndex() {
+            return sequence[(int) (cursor.getAndIncrement() % sequence.length)];
+        }
+    }
+}
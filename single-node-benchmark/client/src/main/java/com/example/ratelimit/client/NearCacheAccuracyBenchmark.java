@@ -0,0 +1,11 @@
+package com.example.ratelimit.client;
+
+public class NearCacheAccuracyBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        // Run against servers started with RATELIMIT_NEARCACHE_ENABLED=true, then again without it
+        // to get the baseline drift caused by response reordering alone.
+        System.setProperty("ratelimit.trackDrift", "true");
+        int[] targetRps = { 10_000, 15_000, 20_000, 25_000, 30_000 };
+        BenchmarkClient.run(args, BenchmarkClient.KeyMode.HUNDRED_KEYS_HOT, targetRps);
+    }
+}
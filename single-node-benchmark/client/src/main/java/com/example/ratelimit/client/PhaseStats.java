@@ -0,0 +1,140 @@
+package com.example.ratelimit.client;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Counters and latency recorders shared by all sender threads of one benchmark phase.
+ * <p>
+ * Counts are per key checked, so a LimitBatch call with three entries counts as three requests, while
+ * latency is recorded once per RPC (or per stream message).
+ * <p>
+ * Every call is recorded twice: {@link #recorder} measures from the time the schedule intended to send it,
+ * so a stall in the server or in the sender itself shows up in the tail (coordinated-omission corrected);
+ * {@link #serviceRecorder} measures from the moment it was actually sent.
+ */
+final class PhaseStats {
+
+    private static final int ERROR_LOG_CAP = 10;
+
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong inflight = new AtomicLong();
+    final LongAdder successCount = new LongAdder();
+    final LongAdder failCount = new LongAdder();
+    /** Keys the server answered with allowed=false; these still count as successful requests. */
+    final LongAdder deniedCount = new LongAdder();
+    final LongAdder totalLatencyNanos = new LongAdder();
+    final LongAdder latencySamples = new LongAdder();
+    /** Response time from the intended send time, in microseconds. */
+    final Recorder recorder = new Recorder(TimeUnit.SECONDS.toNanos(10), 3);
+    /** Service time from the actual send, in microseconds; what the client measured before correction. */
+    final Recorder serviceRecorder = new Recorder(TimeUnit.SECONDS.toNanos(10), 3);
+    /** Scheduled keys the senders were still behind on when the phase ended, so never sent. */
+    final LongAdder unsentCount = new LongAdder();
+    /** Calls that found their ring slot still in flight and fell back to allocating; see {@link UnaryCalls}. */
+    final LongAdder ringOverflowCount = new LongAdder();
+    /** Largest distance between a call's intended and actual send time. */
+    final AtomicLong maxLagNanos = new AtomicLong();
+    final DriftTracker drift;
+
+    /** Everything drained from {@link #recorder} so far in this phase. */
+    final Histogram total = new Histogram(3);
+    /** Everything drained from {@link #serviceRecorder} so far in this phase. */
+    final Histogram serviceTotal = new Histogram(3);
+    /** What the last {@link #drain()} took from {@link #recorder}; reused by the next drain. */
+    Histogram interval;
+    /** What the last {@link #drain()} took from {@link #serviceRecorder}; reused by the next drain. */
+    Histogram serviceInterval;
+
+    private final AtomicLong errors = new AtomicLong();
+
+    /** In-flight permits of a closed-loop phase, released as calls complete; null for open-loop phases. */
+    private final Semaphore permits;
+
+    PhaseStats(DriftTracker drift, Semaphore permits) {
+        this.drift = drift;
+        this.permits = permits;
+    }
+
+    /**
+     * Waits briefly for {@code requests} closed-loop permits, so the caller can re-check the phase deadline.
+     */
+    boolean acquire(int requests) {
+        try {
+            return permits.tryAcquire(requests, 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @param intendedNanos when the schedule wanted the call sent
+     * @param sentNanos     when it was actually sent
+     */
+    void started(int requests, long intendedNanos, long sentNanos) {
+        inflight.addAndGet(requests);
+        sent.addAndGet(requests);
+        long lag = sentNanos - intendedNanos;
+        if (lag > maxLagNanos.get()) {
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+        }
+    }
+
+    void succeeded(int requests, long intendedNanos, long sentNanos) {
+        successCount.add(requests);
+        recordLatency(intendedNanos, sentNanos);
+        inflight.addAndGet(-requests);
+        release(requests);
+    }
+
+    void failed(int requests, long intendedNanos, long sentNanos, Throwable t) {
+        if (errors.incrementAndGet() < ERROR_LOG_CAP) {
+            System.err.println("Request failed: " + t.getMessage());
+        }
+        failCount.add(requests);
+        recordLatency(intendedNanos, sentNanos);
+        inflight.addAndGet(-requests);
+        release(requests);
+    }
+
+    /**
+     * Moves the latencies recorded since the last drain into {@link #interval} / {@link #serviceInterval} and
+     * adds them to the phase totals. Called once per second by the time-series sampler and once at phase end.
+     */
+    synchronized void drain() {
+        interval = recorder.getIntervalHistogram(interval);
+        serviceInterval = serviceRecorder.getIntervalHistogram(serviceInterval);
+        total.add(interval);
+        serviceTotal.add(serviceInterval);
+    }
+
+    double averageLatencyMillis() {
+        long samples = latencySamples.sum();
+        return samples > 0 ? (totalLatencyNanos.sum() / 1_000_000.0) / samples : 0.0;
+    }
+
+    private void release(int requests) {
+        if (permits != null) {
+            permits.release(requests);
+        }
+    }
+
+    private void recordLatency(long intendedNanos, long sentNanos) {
+        long now = System.nanoTime();
+        long latencyNanos = now - intendedNanos;
+        totalLatencyNanos.add(latencyNanos);
+        latencySamples.increment();
+        recorder.recordValue(toMicros(latencyNanos));
+        serviceRecorder.recordValue(toMicros(now - sentNanos));
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+}
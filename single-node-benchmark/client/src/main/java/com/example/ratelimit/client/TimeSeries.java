@@ -0,0 +1,188 @@
+package com.example.ratelimit.client;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+/**
+ * Per-second time series of every phase, enabled with {@code -Dratelimit.output=<dir>}. Each run writes three
+ * files named {@code run-<timestamp>}:
+ * <ul>
+ *     <li>{@code .csv}: one row per second with throughput, success/fail/denied counts, inflight and latency
+ *     percentiles</li>
+ *     <li>{@code .jsonl}: the same rows as JSON objects, one per line</li>
+ *     <li>{@code .hlog}: the interval histograms in the standard HdrHistogram log format (values in
+ *     microseconds), tagged {@code <phase>-<targetRps>} for response time and {@code service-...} for service
+ *     time, for HistogramLogProcessor or merging across clients</li>
+ * </ul>
+ * Rows are written through buffered writers and flushed once per second.
+ */
+final class TimeSeries implements AutoCloseable {
+
+    private static final String CSV_HEADER = "phase,targetRps,second,timestamp,sent,success,fail,denied,inflight,rps,"
+            + "p50Ms,p95Ms,p99Ms,p999Ms,maxMs,serviceP99Ms";
+
+    private final Writer csv;
+    private final Writer json;
+    private final PrintStream hlog;
+    private final HistogramLogWriter logWriter;
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "timeseries-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private TimeSeries(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        String name = "run-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        this.csv = Files.newBufferedWriter(directory.resolve(name + ".csv"), StandardCharsets.UTF_8);
+        this.json = Files.newBufferedWriter(directory.resolve(name + ".jsonl"), StandardCharsets.UTF_8);
+        this.hlog = new PrintStream(new FileOutputStream(directory.resolve(name + ".hlog").toFile()), false,
+                StandardCharsets.UTF_8);
+        this.logWriter = new HistogramLogWriter(hlog);
+        long now = System.currentTimeMillis();
+        logWriter.outputLogFormatVersion();
+        logWriter.outputStartTime(now);
+        logWriter.setBaseTime(now);
+        logWriter.outputLegend();
+        csv.write(CSV_HEADER);
+        csv.write('\n');
+        System.out.println("Writing time series to " + directory.resolve(name) + ".{csv,jsonl,hlog}");
+    }
+
+    /**
+     * @return the writer for {@code -Dratelimit.output}, or null if it is not set
+     */
+    static TimeSeries fromProperties() {
+        String directory = System.getProperty("ratelimit.output");
+        if (directory == null || directory.isBlank()) {
+            return null;
+        }
+        try {
+            return new TimeSeries(Path.of(directory));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot create time series output in " + directory, e);
+        }
+    }
+
+    /**
+     * Starts sampling {@code stats} once per second; close the returned phase once its calls have drained.
+     */
+    Phase startPhase(String phase, int targetRps, PhaseStats stats) {
+        return new Phase(phase, targetRps, stats);
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        synchronized (this) {
+            try {
+                csv.close();
+                json.close();
+            } catch (IOException e) {
+                System.err.println("Time series close failed: " + e.getMessage());
+            }
+            hlog.close();
+        }
+    }
+
+    private synchronized void write(Phase phase, int second, long sent, long success, long fail, long denied,
+                                    long inflight, double rps, Histogram interval, Histogram service) {
+        long timestamp = System.currentTimeMillis();
+        double p50 = interval.getValueAtPercentile(50.0) / 1000.0;
+        double p95 = interval.getValueAtPercentile(95.0) / 1000.0;
+        double p99 = interval.getValueAtPercentile(99.0) / 1000.0;
+        double p999 = interval.getValueAtPercentile(99.9) / 1000.0;
+        double max = interval.getMaxValue() / 1000.0;
+        double serviceP99 = service.getValueAtPercentile(99.0) / 1000.0;
+        try {
+            csv.write(String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+                    phase.name, phase.targetRps, second, timestamp, sent, success, fail, denied, inflight, rps,
+                    p50, p95, p99, p999, max, serviceP99));
+            json.write(String.format(Locale.US,
+                    "{\"phase\":\"%s\",\"targetRps\":%d,\"second\":%d,\"timestamp\":%d,\"sent\":%d,\"success\":%d,"
+                            + "\"fail\":%d,\"denied\":%d,\"inflight\":%d,\"rps\":%.1f,\"p50Ms\":%.3f,\"p95Ms\":%.3f,"
+                            + "\"p99Ms\":%.3f,\"p999Ms\":%.3f,\"maxMs\":%.3f,\"serviceP99Ms\":%.3f}%n",
+                    phase.name, phase.targetRps, second, timestamp, sent, success, fail, denied, inflight, rps,
+                    p50, p95, p99, p999, max, serviceP99));
+            interval.setTag(phase.tag);
+            logWriter.outputIntervalHistogram(interval);
+            service.setTag("service-" + phase.tag);
+            logWriter.outputIntervalHistogram(service);
+            csv.flush();
+            json.flush();
+            hlog.flush();
+        } catch (IOException e) {
+            System.err.println("Time series write failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sampler for one phase. Each tick drains the phase's recorders and writes the counts since the last tick.
+     */
+    final class Phase implements AutoCloseable {
+
+        private final String name;
+        private final int targetRps;
+        private final String tag;
+        private final PhaseStats stats;
+        private final long startNanos = System.nanoTime();
+        private final ScheduledFuture<?> task;
+        private long lastTickNanos = startNanos;
+        private long lastSent;
+        private long lastSuccess;
+        private long lastFail;
+        private long lastDenied;
+
+        private Phase(String name, int targetRps, PhaseStats stats) {
+            this.name = name;
+            this.targetRps = targetRps;
+            this.tag = name + "-" + targetRps;
+            this.stats = stats;
+            this.task = sampler.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Stops the ticks and writes the last, usually partial, interval.
+         */
+        @Override
+        public void close() {
+            task.cancel(false);
+            tick();
+        }
+
+        private synchronized void tick() {
+            long now = System.nanoTime();
+            stats.drain();
+            long sent = stats.sent.get();
+            long success = stats.successCount.sum();
+            long fail = stats.failCount.sum();
+            long denied = stats.deniedCount.sum();
+            double seconds = (now - lastTickNanos) / 1e9;
+            long completed = (success - lastSuccess) + (fail - lastFail);
+            int second = (int) Math.round((now - startNanos) / 1e9);
+            write(this, second, sent - lastSent, success - lastSuccess, fail - lastFail, denied - lastDenied,
+                    stats.inflight.get(), seconds > 0 ? completed / seconds : 0.0, stats.interval, stats.serviceInterval);
+            lastTickNanos = now;
+            lastSent = sent;
+            lastSuccess = success;
+            lastFail = fail;
+            lastDenied = denied;
+        }
+    }
+}
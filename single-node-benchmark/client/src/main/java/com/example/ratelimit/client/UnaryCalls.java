@@ -0,0 +1,120 @@
+package com.example.ratelimit.client;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.example.ratelimit.grpc.LimitRequest;
+import com.example.ratelimit.grpc.LimitResponse;
+
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Allocation-free unary sends: one immutable {@link LimitRequest} per key, built on first use and reused for
+ * every later call on that key, and per-thread rings of reusable response observers that keep each call's
+ * timing in primitive fields.
+ * <p>
+ * A unary observer cannot learn which call it belongs to, so a single shared observer could not time calls;
+ * the ring gives the same effect with a fixed set of observers allocated up front. Call i of a thread uses
+ * observer {@code i & mask}. If that observer is still waiting for its previous call (more than the ring size
+ * in flight), a fresh one is allocated and counted as a ring overflow.
+ */
+final class UnaryCalls {
+
+    private final KeyGenerator keys;
+    private final LimitRequest template;
+    private final AtomicReferenceArray<LimitRequest> requests;
+
+    /**
+     * @param template request carrying everything but the key
+     */
+    UnaryCalls(KeyGenerator keys, LimitRequest template) {
+        this.keys = keys;
+        this.template = template;
+        this.requests = new AtomicReferenceArray<>(keys.size());
+    }
+
+    LimitRequest request(int keyIndex) {
+        LimitRequest request = requests.get(keyIndex);
+        if (request == null) {
+            request = template.toBuilder().setKeyBytes(keys.key(keyIndex)).build();
+            requests.lazySet(keyIndex, request);
+        }
+        return request;
+    }
+
+    /**
+     * Observers for one sender thread in one phase.
+     */
+    static final class Ring {
+
+        private final PhaseStats stats;
+        private final Call[] calls;
+        private final int mask;
+        private long sequence;
+
+        Ring(PhaseStats stats, int size) {
+            this.stats = stats;
+            int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+            this.calls = new Call[capacity];
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                calls[i] = new Call(stats);
+            }
+        }
+
+        /**
+         * Claims the observer for the next call. Only the owning sender thread calls this.
+         */
+        Call next(ChannelPool.Slot channel, int keyIndex, long intendedNanos, long sentNanos) {
+            Call call = calls[(int) (sequence++ & mask)];
+            if (call.busy) {
+                stats.ringOverflowCount.increment();
+                call = new Call(stats);
+            }
+            call.channel = channel;
+            call.keyIndex = keyIndex;
+            call.intendedNanos = intendedNanos;
+            call.sentNanos = sentNanos;
+            call.busy = true;
+            return call;
+        }
+    }
+
+    static final class Call implements StreamObserver<LimitResponse> {
+
+        private final PhaseStats stats;
+        private ChannelPool.Slot channel;
+        private int keyIndex;
+        private long intendedNanos;
+        private long sentNanos;
+        /** Set by the sender before the call, cleared by the callback last; the write publishes the fields. */
+        private volatile boolean busy;
+
+        private Call(PhaseStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void onNext(LimitResponse value) {
+            if (!value.getAllowed()) {
+                stats.deniedCount.increment();
+            }
+            if (stats.drift != null) {
+                stats.drift.record(keyIndex, value.getCount());
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            channel.finished();
+            stats.failed(1, intendedNanos, sentNanos, t);
+            busy = false;
+        }
+
+        @Override
+        public void onCompleted() {
+            channel.finished();
+            stats.succeeded(1, intendedNanos, sentNanos);
+            busy = false;
+        }
+    }
+}
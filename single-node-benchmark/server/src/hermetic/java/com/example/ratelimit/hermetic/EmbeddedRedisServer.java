@@ -0,0 +1,131 @@
+package com.example.ratelimit.hermetic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process Redis stand-in speaking RESP2 on a loopback port, for end-to-end runs without a Redis server
+ * or Docker. One virtual thread serves each connection; replies to a pipelined burst are flushed together
+ * once the connection has no more buffered input, so Lettuce's pipelining behaves as it does against Redis.
+ * <p>
+ * Numbers from it measure the app and the client, not Redis: the store is a synchronized map and scripts run
+ * on LuaJ.
+ */
+final class EmbeddedRedisServer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedRedisServer.class);
+
+    private final InMemoryStore store = new InMemoryStore();
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "embedded-redis-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private EmbeddedRedisServer(ServerSocket serverSocket) {
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Binds to {@code port} on loopback ({@code 0} picks a free port) and starts accepting connections.
+     */
+    static EmbeddedRedisServer start(int port) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        EmbeddedRedisServer server = new EmbeddedRedisServer(socket);
+        Thread.ofVirtual().name("embedded-redis-accept").start(server::acceptLoop);
+        server.sweeper.scheduleWithFixedDelay(server.store::evictExpired, 1, 1, TimeUnit.SECONDS);
+        return server;
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sweeper.shutdownNow();
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket connection = serverSocket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                Thread.ofVirtual().name("embedded-redis-conn").start(() -> serve(connection));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Embedded Redis accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (connection) {
+            InputStream in = new BufferedInputStream(connection.getInputStream(), 64 * 1024);
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream(), 64 * 1024);
+            List<String[]> transaction = null;
+            String[] command;
+            while ((command = Resp.readCommand(in)) != null) {
+                String name = command.length > 0 ? command[0].toUpperCase(Locale.ROOT) : "";
+                Object reply;
+                if (name.equals("MULTI")) {
+                    reply = transaction == null ? Resp.OK : Resp.error("ERR MULTI calls can not be nested");
+                    transaction = new ArrayList<>();
+                } else if (name.equals("EXEC")) {
+                    reply = transaction == null ? Resp.error("ERR EXEC without MULTI") : store.executeAll(transaction);
+                    transaction = null;
+                } else if (name.equals("DISCARD")) {
+                    reply = transaction == null ? Resp.error("ERR DISCARD without MULTI") : Resp.OK;
+                    transaction = null;
+                } else if (name.equals("QUIT")) {
+                    Resp.write(out, Resp.OK);
+                    out.flush();
+                    return;
+                } else if (transaction != null) {
+                    transaction.add(command);
+                    reply = new Resp.Status("QUEUED");
+                } else {
+                    reply = store.execute(command);
+                }
+                Resp.write(out, reply);
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // client went away
+        } catch (IOException | RuntimeException e) {
+            log.warn("Embedded Redis connection {} failed", connection.getRemoteSocketAddress(), e);
+        } finally {
+            connections.remove(connection);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.ratelimit.hermetic;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.example.ratelimit.RateLimitBenchmarkApplication;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * End-to-end benchmark in one JVM with no external services: the embedded Redis stand-in, the rate limit
+ * app wired to it, and one of the client scenarios pointed at the app's gRPC port.
+ * <p>
+ * Arguments are the scenario's own arguments without the target ({@code keyPrefix threads duration warmup});
+ * the scenario class is picked with {@code -Dhermetic.client} (default {@code HundredKeyBenchmark}). App
+ * settings such as {@code -Dratelimit.engine=async} and the client's {@code -Dratelimit.*} flags are read
+ * from the same system properties.
+ */
+public final class HermeticBenchmark {
+
+    private static final String CLIENT_PACKAGE = "com.example.ratelimit.client.";
+
+    private HermeticBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String client = System.getProperty("hermetic.client", "HundredKeyBenchmark");
+        Method clientMain = Class.forName(client.contains(".") ? client : CLIENT_PACKAGE + client)
+                .getMethod("main", String[].class);
+        int grpcPort = freePort();
+
+        try (EmbeddedRedisServer redis = EmbeddedRedisServer.start(0);
+             ConfigurableApplicationContext app = new SpringApplicationBuilder(RateLimitBenchmarkApplication.class)
+                     .run("--spring.data.redis.host=localhost",
+                             "--spring.data.redis.port=" + redis.port(),
+                             "--grpc.server.port=" + grpcPort,
+                             "--server.port=0")) {
+            System.out.println("Embedded redis on port " + redis.port() + ", gRPC on port " + grpcPort);
+            String[] clientArgs = new String[args.length + 1];
+            clientArgs[0] = "localhost:" + grpcPort;
+            System.arraycopy(args, 0, clientArgs, 1, args.length);
+            System.out.println("Running " + clientMain.getDeclaringClass().getSimpleName() + " " + Arrays.toString(clientArgs));
+            clientMain.invoke(null, (Object) clientArgs);
+            printStageTimings(app.getBean(MeterRegistry.class));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Prints the server's per-stage breakdown when {@code -Dratelimit.stage-timing.enabled=true}, since a
+     * hermetic run has no Prometheus to scrape it from.
+     */
+    private static void printStageTimings(MeterRegistry registry) {
+        for (Timer timer : registry.find("ratelimit.stage.latency").timers()) {
+            System.out.printf(Locale.US, "stage=%s count=%d mean=%.3fms max=%.3fms%n", timer.getId().getTag("stage"),
+                    timer.count(), timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.example.ratelimit.hermetic;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The keyspace and command set of the embedded server: strings, hashes and sorted sets with millisecond
+ * expiry, plus EVAL/EVALSHA, SCRIPT and FUNCTION/FCALL through {@link LuaScripting}. Only the commands and
+ * options the rate limiter and Spring/Lettuce issue are implemented.
+ * <p>
+ * Every command runs under the store's monitor, which gives the same atomicity as Redis's single command
+ * thread: scripts and MULTI/EXEC blocks never interleave with other commands.
+ */
+final class InMemoryStore {
+
+    private static final Resp.Error WRONG_TYPE =
+            Resp.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+    private static final Resp.Error NOT_INTEGER = Resp.error("ERR value is not an integer or out of range");
+    private static final Resp.Error SYNTAX = Resp.error("ERR syntax error");
+
+    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Long> expires = new HashMap<>();
+    private final LuaScripting scripting = new LuaScripting(this::execute);
+
+    /**
+     * Runs one command; {@code args[0]} is the command name in any case.
+     */
+    synchronized Object execute(String[] args) {
+        if (args.length == 0) {
+            return Resp.error("ERR empty command");
+        }
+        String name = args[0].toUpperCase(Locale.ROOT);
+        try {
+            return switch (name) {
+                case "PING" -> args.length > 1 ? args[1] : new Resp.Status("PONG");
+                case "ECHO" -> arity(args, 2) ? args[1] : wrongArity(name);
+                case "SELECT", "AUTH", "CLIENT", "READONLY", "READWRITE" -> Resp.OK;
+                case "INFO" -> "# Server\r\nredis_version:7.2.0\r\nredis_mode:standalone\r\n";
+                case "COMMAND" -> List.of();
+                case "TIME" -> time();
+                case "DBSIZE" -> (long) values.size();
+                case "FLUSHALL", "FLUSHDB" -> flush();
+                case "GET" -> arity(args, 2) ? get(args[1]) : wrongArity(name);
+                case "SET" -> set(args);
+                case "INCR" -> arity(args, 2) ? incrBy(args[1], 1) : wrongArity(name);
+                case "INCRBY" -> arity(args, 3) ? incrBy(args[1], Long.parseLong(args[2])) : wrongArity(name);
+                case "DECR" -> arity(args, 2) ? incrBy(args[1], -1) : wrongArity(name);
+                case "DEL", "UNLINK" -> del(args);
+                case "EXISTS" -> exists(args);
+                case "EXPIRE" -> arity(args, 3) ? expire(args[1], Long.parseLong(args[2]) * 1000) : wrongArity(name);
+                case "PEXPIRE" -> arity(args, 3) ? expire(args[1], Long.parseLong(args[2])) : wrongArity(name);
+                case "TTL" -> arity(args, 2) ? ttl(args[1], 1000) : wrongArity(name);
+                case "PTTL" -> arity(args, 2) ? ttl(args[1], 1) : wrongArity(name);
+                case "HSET", "HMSET" -> hset(name, args);
+                case "HGET" -> arity(args, 3) ? hget(args[1], args[2]) : wrongArity(name);
+                case "HMGET" -> hmget(args);
+                case "HGETALL" -> arity(args, 2) ? hgetall(args[1]) : wrongArity(name);
+                case "ZADD" -> zadd(args);
+                case "ZCARD" -> arity(args, 2) ? zcard(args[1]) : wrongArity(name);
+                case "ZRANGE" -> zrange(args);
+                case "ZREMRANGEBYSCORE" -> arity(args, 4) ? zremrangebyscore(args[1], args[2], args[3]) : wrongArity(name);
+                case "EVAL" -> scripting.eval(args);
+                case "EVALSHA" -> scripting.evalsha(args);
+                case "SCRIPT" -> scripting.script(args);
+                case "FUNCTION" -> scripting.function(args);
+                case "FCALL" -> scripting.fcall(args);
+                default -> Resp.error("ERR unknown command '" + args[0] + "'");
+            };
+        } catch (NumberFormatException e) {
+            return NOT_INTEGER;
+        } catch (ClassCastException e) {
+            return WRONG_TYPE;
+        }
+    }
+
+    /**
+     * Runs a MULTI/EXEC block atomically.
+     */
+    synchronized List<Object> executeAll(List<String[]> commands) {
+        List<Object> replies = new ArrayList<>(commands.size());
+        for (String[] command : commands) {
+            replies.add(execute(command));
+        }
+        return replies;
+    }
+
+    /**
+     * Drops expired keys that were never touched again. Reads expire lazily as well, so this only bounds
+     * memory.
+     */
+    synchronized void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = expires.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                values.remove(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    static String sha1(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.ISO_8859_1));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object lookup(String key) {
+        Long expireAt = expires.get(key);
+        if (expireAt != null && expireAt <= System.currentTimeMillis()) {
+            expires.remove(key);
+            values.remove(key);
+            return null;
+        }
+        return values.get(key);
+    }
+
+    private static boolean arity(String[] args, int expected) {
+        return args.length == expected;
+    }
+
+    private static Resp.Error wrongArity(String name) {
+        return Resp.error("ERR wrong number of arguments for '" + name.toLowerCase(Locale.ROOT) + "' command");
+    }
+
+    private static List<Object> time() {
+        long micros = System.currentTimeMillis() * 1000 + (System.nanoTime() / 1000) % 1000;
+        return Resp.array(Long.toString(micros / 1_000_000), Long.toString(micros % 1_000_000));
+    }
+
+    private Object flush() {
+        values.clear();
+        expires.clear();
+        return Resp.OK;
+    }
+
+    private Object get(String key) {
+        return (String) lookup(key);
+    }
+
+    /**
+     * SET key value [EX seconds | PX milliseconds] [NX | XX] [KEEPTTL].
+     */
+    private Object set(String[] args) {
+        if (args.length < 3) {
+            return wrongArity("SET");
+        }
+        long ttlMillis = -1;
+        boolean nx = false;
+        boolean xx = false;
+        boolean keepTtl = false;
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i].toUpperCase(Locale.ROOT)) {
+                case "EX" -> ttlMillis = Long.parseLong(args[++i]) * 1000;
+                case "PX" -> ttlMillis = Long.parseLong(args[++i]);
+                case "NX" -> nx = true;
+                case "XX" -> xx = true;
+                case "KEEPTTL" -> keepTtl = true;
+                default -> {
+                    return SYNTAX;
+                }
+            }
+        }
+        boolean exists = lookup(args[1]) != null;
+        if ((nx && exists) || (xx && !exists)) {
+            return null;
+        }
+        values.put(args[1], args[2]);
+        if (ttlMillis > 0) {
+            expires.put(args[1], System.currentTimeMillis() + ttlMillis);
+        } else if (!keepTtl) {
+            expires.remove(args[1]);
+        }
+        return Resp.OK;
+    }
+
+    private Object incrBy(String key, long delta) {
+        String current = (String) lookup(key);
+        long value = (current == null ? 0 : Long.parseLong(current)) + delta;
+        values.put(key, Long.toString(value));
+        return value;
+    }
+
+    private Object del(String[] args) {
+        long deleted = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (lookup(args[i]) != null) {
+                values.remove(args[i]);
+                expires.remove(args[i]);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private Object exists(String[] args) {
+        long found = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (lookup(args[i]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private Object expire(String key, long ttlMillis) {
+        if (lookup(key) == null) {
+            return 0L;
+        }
+        if (ttlMillis <= 0) {
+            values.remove(key);
+            expires.remove(key);
+        } else {
+            expires.put(key, System.currentTimeMillis() + ttlMillis);
+        }
+        return 1L;
+    }
+
+    private Object ttl(String key, long unitMillis) {
+        if (lookup(key) == null) {
+            return -2L;
+        }
+        Long expireAt = expires.get(key);
+        if (expireAt == null) {
+            return -1L;
+        }
+        long remaining = expireAt - System.currentTimeMillis();
+        return unitMillis == 1 ? remaining : (remaining + unitMillis - 1) / unitMillis;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key, boolean create) {
+        Object value = lookup(key);
+        if (value == null && create) {
+            value = new HashMap<String, String>();
+            values.put(key, value);
+        }
+        return (Map<String, String>) value;
+    }
+
+    private Object hset(String name, String[] args) {
+        if (args.length < 4 || args.length % 2 != 0) {
+            return wrongArity(name);
+        }
+        Map<String, String> hash = hash(args[1], true);
+        long added = 0;
+        for (int i = 2; i < args.length; i += 2) {
+            if (hash.put(args[i], args[i + 1]) == null) {
+                added++;
+            }
+        }
+        return name.equals("HMSET") ? Resp.OK : added;
+    }
+
+    private Object hget(String key, String field) {
+        Map<String, String> hash = hash(key, false);
+        return hash == null ? null : hash.get(field);
+    }
+
+    private Object hmget(String[] args) {
+        if (args.length < 3) {
+            return wrongArity("HMGET");
+        }
+        Map<String, String> hash = hash(args[1], false);
+        List<Object> reply = new ArrayList<>(args.length - 2);
+        for (int i = 2; i < args.length; i++) {
+            reply.add(hash == null ? null : hash.get(args[i]));
+        }
+        return reply;
+    }
+
+    private Object hgetall(String key) {
+        Map<String, String> hash = hash(key, false);
+        List<Object> reply = new ArrayList<>();
+        if (hash != null) {
+            hash.forEach((field, value) -> {
+                reply.add(field);
+                reply.add(value);
+            });
+        }
+        return reply;
+    }
+
+    private SortedSet zset(String key, boolean create) {
+        Object value = lookup(key);
+        if (value == null && create) {
+            value = new SortedSet();
+            values.put(key, value);
+        }
+        return (SortedSet) value;
+    }
+
+    /**
+     * ZADD key score member [score member ...], without the NX/XX/GT/LT/CH/INCR options.
+     */
+    private Object zadd(String[] args) {
+        if (args.length < 4 || args.length % 2 != 0) {
+            return wrongArity("ZADD");
+        }
+        SortedSet zset = zset(args[1], true);
+        long added = 0;
+        for (int i = 2; i < args.length; i += 2) {
+            if (zset.add(Double.parseDouble(args[i]), args[i + 1])) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private Object zcard(String key) {
+        SortedSet zset = zset(key, false);
+        return zset == null ? 0L : (long) zset.scores.size();
+    }
+
+    /**
+     * ZRANGE key start stop [WITHSCORES], by rank only.
+     */
+    private Object zrange(String[] args) {
+        if (args.length < 4) {
+            return wrongArity("ZRANGE");
+        }
+        boolean withScores = args.length == 5 && args[4].equalsIgnoreCase("WITHSCORES");
+        if (args.length > 5 || (args.length == 5 && !withScores)) {
+            return SYNTAX;
+        }
+        SortedSet zset = zset(args[1], false);
+        List<Object> reply = new ArrayList<>();
+        if (zset == null) {
+            return reply;
+        }
+        int size = zset.scores.size();
+        int start = normalize(Integer.parseInt(args[2]), size);
+        int stop = Math.min(normalize(Integer.parseInt(args[3]), size), size - 1);
+        int rank = 0;
+        for (SortedSet.Member member : zset.ordered) {
+            if (rank > stop) {
+                break;
+            }
+            if (rank >= start) {
+                reply.add(member.name());
+                if (withScores) {
+                    reply.add(formatScore(member.score()));
+                }
+            }
+            rank++;
+        }
+        return reply;
+    }
+
+    private Object zremrangebyscore(String key, String min, String max) {
+        SortedSet zset = zset(key, false);
+        if (zset == null) {
+            return 0L;
+        }
+        boolean minExclusive = min.startsWith("(");
+        boolean maxExclusive = max.startsWith("(");
+        double low = parseBound(minExclusive ? min.substring(1) : min);
+        double high = parseBound(maxExclusive ? max.substring(1) : max);
+        long removed = 0;
+        Iterator<SortedSet.Member> it = zset.ordered.iterator();
+        while (it.hasNext()) {
+            SortedSet.Member member = it.next();
+            double score = member.score();
+            if (score > high || (maxExclusive && score == high)) {
+                break;
+            }
+            if (score > low || (!minExclusive && score == low)) {
+                it.remove();
+                zset.scores.remove(member.name());
+                removed++;
+            }
+        }
+        if (zset.scores.isEmpty()) {
+            values.remove(key);
+            expires.remove(key);
+        }
+        return removed;
+    }
+
+    private static int normalize(int index, int size) {
+        return index < 0 ? Math.max(0, size + index) : index;
+    }
+
+    private static double parseBound(String bound) {
+        return switch (bound.toLowerCase(Locale.ROOT)) {
+            case "-inf" -> Double.NEGATIVE_INFINITY;
+            case "+inf", "inf" -> Double.POSITIVE_INFINITY;
+            default -> Double.parseDouble(bound);
+        };
+    }
+
+    private static String formatScore(double score) {
+        if (score == Math.rint(score) && Math.abs(score) < 1e17) {
+            return Long.toString((long) score);
+        }
+        return Double.toString(score);
+    }
+
+    /**
+     * Members ordered by (score, member) as in Redis, with a member index for updates.
+     */
+    private static final class SortedSet {
+
+        private record Member(double score, String name) implements Comparable<Member> {
+            @Override
+            public int compareTo(Member other) {
+                int byScore = Double.compare(score, other.score);
+                return byScore != 0 ? byScore : name.compareTo(other.name);
+            }
+        }
+
+        private final Map<String, Double> scores = new HashMap<>();
+        private final TreeSet<Member> ordered = new TreeSet<>();
+
+        /**
+         * @return true if the member is new
+         */
+        private boolean add(double score, String name) {
+            Double previous = scores.put(name, score);
+            if (previous != null) {
+                ordered.remove(new Member(previous, name));
+            }
+            ordered.add(new Member(score, name));
+            return previous == null;
+        }
+    }
+}
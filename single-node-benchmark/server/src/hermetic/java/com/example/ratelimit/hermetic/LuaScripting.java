@@ -0,0 +1,405 @@
+package com.example.ratelimit.hermetic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+/**
+ * EVAL/EVALSHA, SCRIPT and FUNCTION/FCALL on LuaJ, so the embedded server runs the exact script text the
+ * rate limiter ships instead of a Java re-implementation of it. Scripts are compiled once per SHA1 and share
+ * one Lua state, as in Redis.
+ * <p>
+ * Values cross the boundary with the Redis conversion rules: integer replies become numbers, bulk strings
+ * become strings, nil becomes {@code false}; on the way back numbers are truncated to integers, {@code true}
+ * becomes 1, and tables become arrays (up to the first nil) or status/error replies via {@code ok}/{@code err}.
+ */
+final class LuaScripting {
+
+    private static final Resp.Error NO_SCRIPT = Resp.error("NOSCRIPT No matching script. Please use EVAL.");
+
+    private final Function<String[], Object> commands;
+    private final Globals globals = JsePlatform.standardGlobals();
+    private final Map<String, LuaValue> scripts = new HashMap<>();
+    private final Map<String, LuaValue> functions = new HashMap<>();
+    private final Map<String, List<String>> libraries = new HashMap<>();
+    /** Functions registered by the library currently being loaded; null outside FUNCTION LOAD. */
+    private Map<String, LuaValue> registering;
+
+    LuaScripting(Function<String[], Object> commands) {
+        this.commands = commands;
+        LuaTable redis = new LuaTable();
+        redis.set("call", new RedisCall(true));
+        redis.set("pcall", new RedisCall(false));
+        redis.set("register_function", new RegisterFunction());
+        redis.set("status_reply", new Reply("ok"));
+        redis.set("error_reply", new Reply("err"));
+        redis.set("log", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return NONE;
+            }
+        });
+        redis.set("LOG_DEBUG", 0);
+        redis.set("LOG_VERBOSE", 1);
+        redis.set("LOG_NOTICE", 2);
+        redis.set("LOG_WARNING", 3);
+        globals.set("redis", redis);
+    }
+
+    /**
+     * EVAL script numkeys key... arg...
+     */
+    Object eval(String[] args) {
+        if (args.length < 3) {
+            return Resp.error("ERR wrong number of arguments for 'eval' command");
+        }
+        String sha = InMemoryStore.sha1(args[1]);
+        LuaValue script = scripts.get(sha);
+        if (script == null) {
+            try {
+                script = compile(args[1]);
+            } catch (LuaError e) {
+                return compileError(e);
+            }
+            scripts.put(sha, script);
+        }
+        return runScript(script, args);
+    }
+
+    /**
+     * EVALSHA sha1 numkeys key... arg...
+     */
+    Object evalsha(String[] args) {
+        if (args.length < 3) {
+            return Resp.error("ERR wrong number of arguments for 'evalsha' command");
+        }
+        LuaValue script = scripts.get(args[1].toLowerCase(Locale.ROOT));
+        return script == null ? NO_SCRIPT : runScript(script, args);
+    }
+
+    /**
+     * SCRIPT LOAD | EXISTS | FLUSH.
+     */
+    Object script(String[] args) {
+        String sub = args.length > 1 ? args[1].toUpperCase(Locale.ROOT) : "";
+        switch (sub) {
+            case "LOAD" -> {
+                if (args.length != 3) {
+                    return Resp.error("ERR wrong number of arguments for 'script|load' command");
+                }
+                String sha = InMemoryStore.sha1(args[2]);
+                if (!scripts.containsKey(sha)) {
+                    try {
+                        scripts.put(sha, compile(args[2]));
+                    } catch (LuaError e) {
+                        return compileError(e);
+                    }
+                }
+                return sha;
+            }
+            case "EXISTS" -> {
+                List<Object> reply = new ArrayList<>(args.length - 2);
+                for (int i = 2; i < args.length; i++) {
+                    reply.add(scripts.containsKey(args[i].toLowerCase(Locale.ROOT)) ? 1L : 0L);
+                }
+                return reply;
+            }
+            case "FLUSH" -> {
+                scripts.clear();
+                return Resp.OK;
+            }
+            default -> {
+                return Resp.error("ERR unknown subcommand '" + sub + "'");
+            }
+        }
+    }
+
+    /**
+     * FUNCTION LOAD [REPLACE] code | DELETE library | FLUSH.
+     */
+    Object function(String[] args) {
+        String sub = args.length > 1 ? args[1].toUpperCase(Locale.ROOT) : "";
+        switch (sub) {
+            case "LOAD" -> {
+                boolean replace = args.length == 4 && args[2].equalsIgnoreCase("REPLACE");
+                if (args.length != 3 && !replace) {
+                    return Resp.error("ERR wrong number of arguments for 'function|load' command");
+                }
+                return loadLibrary(args[args.length - 1], replace);
+            }
+            case "DELETE" -> {
+                if (args.length != 3 || !libraries.containsKey(args[2])) {
+                    return Resp.error("ERR Library not found");
+                }
+                deleteLibrary(args[2]);
+                return Resp.OK;
+            }
+            case "FLUSH" -> {
+                functions.clear();
+                libraries.clear();
+                return Resp.OK;
+            }
+            default -> {
+                return Resp.error("ERR unknown subcommand '" + sub + "'");
+            }
+        }
+    }
+
+    /**
+     * FCALL function numkeys key... arg...
+     */
+    Object fcall(String[] args) {
+        if (args.length < 3) {
+            return Resp.error("ERR wrong number of arguments for 'fcall' command");
+        }
+        LuaValue function = functions.get(args[1]);
+        if (function == null) {
+            return Resp.error("ERR Function not found");
+        }
+        LuaTable[] keysAndArgs = keysAndArgs(args);
+        if (keysAndArgs == null) {
+            return Resp.error("ERR Number of keys can't be greater than number of args");
+        }
+        try {
+            return toRedis(function.call(keysAndArgs[0], keysAndArgs[1]));
+        } catch (LuaError e) {
+            return runError(e);
+        }
+    }
+
+    private Object loadLibrary(String code, boolean replace) {
+        int newline = code.indexOf('\n');
+        String header = newline < 0 ? code : code.substring(0, newline);
+        if (!header.startsWith("#!lua name=")) {
+            return Resp.error("ERR Missing library metadata");
+        }
+        String name = header.substring("#!lua name=".length()).trim();
+        if (libraries.containsKey(name) && !replace) {
+            return Resp.error("ERR Library '" + name + "' already exists");
+        }
+        Map<String, LuaValue> registered = new HashMap<>();
+        registering = registered;
+        try {
+            // Keep the header line as an empty line so error line numbers still match the source.
+            compile(newline < 0 ? "" : code.substring(newline)).call();
+        } catch (LuaError e) {
+            return Resp.error("ERR Error registering functions: " + e.getMessage());
+        } finally {
+            registering = null;
+        }
+        deleteLibrary(name);
+        functions.putAll(registered);
+        libraries.put(name, new ArrayList<>(registered.keySet()));
+        return name;
+    }
+
+    private void deleteLibrary(String name) {
+        List<String> names = libraries.remove(name);
+        if (names != null) {
+            names.forEach(functions::remove);
+        }
+    }
+
+    private LuaValue compile(String body) {
+        return globals.load(body, "@user_script");
+    }
+
+    private Object runScript(LuaValue script, String[] args) {
+        LuaTable[] keysAndArgs = keysAndArgs(args);
+        if (keysAndArgs == null) {
+            return Resp.error("ERR Number of keys can't be greater than number of args");
+        }
+        globals.set("KEYS", keysAndArgs[0]);
+        globals.set("ARGV", keysAndArgs[1]);
+        try {
+            return toRedis(script.call());
+        } catch (LuaError e) {
+            return runError(e);
+        }
+    }
+
+    /**
+     * Splits {@code <cmd> <script-or-name> numkeys key... arg...} into the KEYS and ARGV tables.
+     */
+    private static LuaTable[] keysAndArgs(String[] args) {
+        int numKeys = Integer.parseInt(args[2]);
+        if (numKeys < 0 || 3 + numKeys > args.length) {
+            return null;
+        }
+        LuaTable keys = new LuaTable(numKeys, 0);
+        for (int i = 0; i < numKeys; i++) {
+            keys.set(i + 1, toLua(args[3 + i]));
+        }
+        int argCount = args.length - 3 - numKeys;
+        LuaTable argv = new LuaTable(argCount, 0);
+        for (int i = 0; i < argCount; i++) {
+            argv.set(i + 1, toLua(args[3 + numKeys + i]));
+        }
+        return new LuaTable[] {keys, argv};
+    }
+
+    private static Resp.Error compileError(LuaError e) {
+        return Resp.error("ERR Error compiling script: " + e.getMessage());
+    }
+
+    private static Resp.Error runError(LuaError e) {
+        LuaValue value = e.getMessageObject();
+        if (value != null && value.istable() && value.get("err").isstring()) {
+            return Resp.error(value.get("err").tojstring());
+        }
+        return Resp.error("ERR Error running script: " + e.getMessage());
+    }
+
+    private static LuaString toLua(String value) {
+        return LuaString.valueOf(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String toJava(LuaString value) {
+        return new String(value.m_bytes, value.m_offset, value.m_length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static LuaValue toLua(Object reply) {
+        if (reply == null) {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof Long value) {
+            return LuaValue.valueOf((double) value);
+        }
+        if (reply instanceof String value) {
+            return toLua(value);
+        }
+        if (reply instanceof Resp.Status status) {
+            return field("ok", LuaValue.valueOf(status.message()));
+        }
+        if (reply instanceof Resp.Error error) {
+            return field("err", LuaValue.valueOf(error.message()));
+        }
+        List<?> values = (List<?>) reply;
+        LuaTable table = new LuaTable(values.size(), 0);
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, toLua(values.get(i)));
+        }
+        return table;
+    }
+
+    private static LuaTable field(String name, LuaValue value) {
+        LuaTable table = new LuaTable();
+        table.set(name, value);
+        return table;
+    }
+
+    private static Object toRedis(LuaValue value) {
+        switch (value.type()) {
+            case LuaValue.TNUMBER:
+                return (long) value.todouble();
+            case LuaValue.TSTRING:
+                return toJava(value.checkstring());
+            case LuaValue.TBOOLEAN:
+                return value.toboolean() ? 1L : null;
+            case LuaValue.TTABLE:
+                LuaValue err = value.get("err");
+                if (err.isstring()) {
+                    return Resp.error(err.tojstring());
+                }
+                LuaValue ok = value.get("ok");
+                if (ok.isstring()) {
+                    return new Resp.Status(ok.tojstring());
+                }
+                List<Object> array = new ArrayList<>();
+                for (int i = 1; !value.get(i).isnil(); i++) {
+                    array.add(toRedis(value.get(i)));
+                }
+                return array;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * {@code redis.call} raises Redis errors as Lua errors; {@code redis.pcall} returns them as
+     * {@code {err=...}} tables.
+     */
+    private final class RedisCall extends VarArgFunction {
+
+        private final boolean raise;
+
+        RedisCall(boolean raise) {
+            this.raise = raise;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            int count = args.narg();
+            if (count == 0) {
+                throw new LuaError("Please specify at least one argument for this redis lib call");
+            }
+            String[] command = new String[count];
+            for (int i = 0; i < count; i++) {
+                LuaValue arg = args.arg(i + 1);
+                if (arg.type() == TSTRING) {
+                    command[i] = toJava(arg.checkstring());
+                } else if (arg.type() == TNUMBER) {
+                    command[i] = arg.tojstring();
+                } else {
+                    throw new LuaError("Lua redis lib command arguments must be strings or integers");
+                }
+            }
+            Object reply = commands.apply(command);
+            if (raise && reply instanceof Resp.Error error) {
+                throw new LuaError(toLua(error));
+            }
+            return toLua(reply);
+        }
+    }
+
+    /**
+     * {@code redis.register_function(name, fn)} or {@code redis.register_function{function_name=..., callback=...}}.
+     */
+    private final class RegisterFunction extends VarArgFunction {
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            if (registering == null) {
+                throw new LuaError("redis.register_function can only be called on FUNCTION LOAD command");
+            }
+            LuaValue name = args.arg1();
+            LuaValue callback = args.arg(2);
+            if (name.istable()) {
+                callback = name.get("callback");
+                name = name.get("function_name");
+            }
+            registering.put(name.checkjstring(), callback.checkfunction());
+            return NONE;
+        }
+    }
+
+    /**
+     * {@code redis.status_reply} / {@code redis.error_reply}.
+     */
+    private static final class Reply extends VarArgFunction {
+
+        private final String field;
+
+        Reply(String field) {
+            this.field = field;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            return field(field, args.checkstring(1));
+        }
+    }
+}
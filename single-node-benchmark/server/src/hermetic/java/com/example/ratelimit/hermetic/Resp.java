@@ -0,0 +1,120 @@
+package com.example.ratelimit.hermetic;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RESP2 wire format. Replies are plain Java values: {@code Long} (integer), {@code String} (bulk string,
+ * ISO-8859-1 so any byte sequence round-trips), {@code null} (nil), {@code List} (array), {@link Status} and
+ * {@link Error}.
+ */
+final class Resp {
+
+    static final Status OK = new Status("OK");
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NIL = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    record Status(String message) {
+    }
+
+    record Error(String message) {
+    }
+
+    private Resp() {
+    }
+
+    static Error error(String message) {
+        return new Error(message);
+    }
+
+    /**
+     * Reads one command, either a RESP array of bulk strings or an inline command line.
+     *
+     * @return the command and its arguments, or {@code null} at end of stream
+     */
+    static String[] readCommand(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        if (first != '*') {
+            String inline = (char) first + readLine(in);
+            return inline.isBlank() ? new String[0] : inline.trim().split("\\s+");
+        }
+        int count = Integer.parseInt(readLine(in));
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("expected bulk string");
+            }
+            int length = Integer.parseInt(readLine(in));
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length < length) {
+                throw new EOFException();
+            }
+            args[i] = new String(bytes, StandardCharsets.ISO_8859_1);
+            readLine(in);
+        }
+        return args;
+    }
+
+    static void write(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write(NIL);
+        } else if (reply instanceof Long value) {
+            out.write(':');
+            writeAscii(out, Long.toString(value));
+        } else if (reply instanceof String value) {
+            out.write('$');
+            writeAscii(out, Integer.toString(value.length()));
+            out.write(value.getBytes(StandardCharsets.ISO_8859_1));
+            out.write(CRLF);
+        } else if (reply instanceof Status status) {
+            out.write('+');
+            writeAscii(out, status.message());
+        } else if (reply instanceof Error error) {
+            out.write('-');
+            writeAscii(out, error.message());
+        } else if (reply instanceof List<?> values) {
+            out.write('*');
+            writeAscii(out, Integer.toString(values.size()));
+            for (Object value : values) {
+                write(out, value);
+            }
+        } else {
+            throw new IllegalArgumentException("not a RESP value: " + reply.getClass());
+        }
+    }
+
+    private static void writeAscii(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(CRLF);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\r') {
+                in.read();
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+        throw new EOFException();
+    }
+
+    static List<Object> array(Object... values) {
+        List<Object> list = new ArrayList<>(values.length);
+        for (Object value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.ratelimit.grpc;
+
+import java.net.ConnectException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.RedisSystemException;
+
+import io.lettuce.core.RedisCommandTimeoutException;
+
+/**
+ * Cost of {@code toGrpcException} on the error path, which matters when Redis is flapping and every request
+ * fails: a shallow INTERNAL error versus a connectivity failure found a few causes deep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ErrorClassificationBenchmark {
+
+    private final Throwable scriptError = new IllegalStateException("ERR Error running script");
+    private final Throwable timeout = new RedisSystemException("Redis command timed out",
+            new RedisCommandTimeoutException("Command timed out after 1 second(s)"));
+    private final Throwable refused = new RedisSystemException("Unable to connect",
+            new IllegalStateException("connect failed", new ConnectException("Connection refused")));
+
+    @Benchmark
+    public Throwable internal() {
+        return RateLimitGrpcService.toGrpcException("redis rateLimit failed", scriptError);
+    }
+
+    @Benchmark
+    public Throwable timeout() {
+        return RateLimitGrpcService.toGrpcException("redis rateLimit failed", timeout);
+    }
+
+    @Benchmark
+    public Throwable connectionRefused() {
+        return RateLimitGrpcService.toGrpcException("redis rateLimit failed", refused);
+    }
+}
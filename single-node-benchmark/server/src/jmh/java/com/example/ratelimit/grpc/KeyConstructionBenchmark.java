@@ -0,0 +1,74 @@
+package com.example.ratelimit.grpc;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Per-request key and request construction: {@code keyPrefix + keyIndex} into a fresh builder, as the client
+ * used to do, against keys encoded once up front as its KeyGenerator does now. The client is a separate build,
+ * so its code is mirrored here rather than linked.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyConstructionBenchmark {
+
+    @Param({"100", "10000"})
+    public int keys;
+
+    private final String keyPrefix = "hundred_keys_hot_";
+    private ByteString[] encodedKeys;
+
+    @Setup
+    public void setUp() {
+        encodedKeys = new ByteString[keys];
+        for (int i = 0; i < keys; i++) {
+            encodedKeys[i] = ByteString.copyFromUtf8(keyPrefix + i);
+        }
+    }
+
+    @Benchmark
+    public LimitRequest concatenatedKey() {
+        int keyIndex = ThreadLocalRandom.current().nextInt(keys);
+        return LimitRequest.newBuilder()
+                .setKey(keyPrefix + keyIndex)
+                .setAlgorithm(Algorithm.ALGORITHM_UNSPECIFIED)
+                .build();
+    }
+
+    @Benchmark
+    public LimitRequest preEncodedKey() {
+        int keyIndex = ThreadLocalRandom.current().nextInt(keys);
+        return LimitRequest.newBuilder()
+                .setKeyBytes(encodedKeys[keyIndex])
+                .setAlgorithm(Algorithm.ALGORITHM_UNSPECIFIED)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] concatenatedKeySerialized() {
+        return concatenatedKey().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] preEncodedKeySerialized() {
+        return preEncodedKey().toByteArray();
+    }
+}
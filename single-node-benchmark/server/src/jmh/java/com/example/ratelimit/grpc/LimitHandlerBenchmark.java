@@ -0,0 +1,161 @@
+package com.example.ratelimit.grpc;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.example.ratelimit.algorithm.RateLimitAlgorithms;
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.config.RedisConfig;
+import com.example.ratelimit.limiter.DenyCache;
+import com.example.ratelimit.limiter.LimitBatcher;
+import com.example.ratelimit.limiter.NearCache;
+import com.example.ratelimit.redis.ConnectionStripes;
+import com.example.ratelimit.redis.RedisLimiterClient;
+import com.example.ratelimit.redis.ScriptExecutor;
+import com.example.ratelimit.redis.StubRedis;
+
+import io.grpc.stub.StreamObserver;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * The unary Limit handler end to end, with Redis replaced by a script executor that answers immediately. What
+ * is left is the handler's own work per engine: request decoding, dispatch, metrics and response building.
+ * {@code ASYNC} goes through {@link com.example.ratelimit.redis.RedisLimiterClient} on a {@link StubRedis}
+ * connection, so its figure also includes Lettuce's command encoding and reply decoding.
+ * Run with {@code -prof gc} (the default of the jmh task) to see allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LimitHandlerBenchmark {
+
+    @Param({"REACTIVE", "ASYNC", "VIRTUAL"})
+    public RateLimitProperties.Engine engine;
+
+    private RateLimitGrpcService service;
+    private LimitRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setEngine(engine);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisConfig redisConfig = new RedisConfig();
+        DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+        StubScriptExecutor scriptExecutor = new StubScriptExecutor(properties, registry);
+        if (engine == RateLimitProperties.Engine.ASYNC) {
+            // As in production, the async engine serves the default fixed window through the raw client.
+            beans.registerSingleton("redisLimiterClient",
+                    StubRedis.limiterClient(scriptExecutor, redisConfig.rateLimitScript(), properties));
+        }
+        service = new RateLimitGrpcService(null,
+                scriptExecutor,
+                redisConfig.rateLimitScript(),
+                redisConfig.batchRateLimitScript(),
+                properties,
+                new RateLimitAlgorithms(List.of(), properties),
+                beans.getBeanProvider(NearCache.class),
+                beans.getBeanProvider(LimitBatcher.class),
+                beans.getBeanProvider(RedisLimiterClient.class),
+                beans.getBeanProvider(DenyCache.class),
+                registry);
+        request = LimitRequest.newBuilder().setKey("hundred_keys_hot_42").build();
+        // Fail fast if a stub no longer answers the path this engine takes, rather than timing the error path.
+        CompletableFuture<LimitResponse> response = new CompletableFuture<>();
+        service.limit(request, new StreamObserver<>() {
+            @Override
+            public void onNext(LimitResponse value) {
+                response.complete(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                response.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        if (response.get(5, TimeUnit.SECONDS).getCount() != 42) {
+            throw new IllegalStateException("stubbed Limit call returned " + response.get());
+        }
+    }
+
+    @Benchmark
+    public void limit(Blackhole blackhole) {
+        service.limit(request, new StreamObserver<>() {
+            @Override
+            public void onNext(LimitResponse value) {
+                blackhole.consume(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                blackhole.consume(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+    }
+
+    /**
+     * Answers every script call with a fixed {@code {allowed, count, remaining, reset_ms}} reply.
+     */
+    private static final class StubScriptExecutor extends ScriptExecutor {
+
+        private static final List<Long> REPLY = List.of(1L, 42L, 958L, 731L);
+
+        @SuppressWarnings("unchecked")
+        private StubScriptExecutor(RateLimitProperties properties, SimpleMeterRegistry registry) {
+            super(new ConnectionStripes<>(List.of((StatefulRedisConnection<String, String>) Proxy.newProxyInstance(
+                            StubScriptExecutor.class.getClassLoader(),
+                            new Class<?>[] { StatefulRedisConnection.class },
+                            (proxy, method, args) -> null)), properties.getConnections().getRouting()),
+                    List.of(), properties, registry);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Mono<T> execute(RedisScript<T> script, List<String> keys, List<String> args) {
+            return Mono.just((T) REPLY);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletionStage<T> executeAsync(RedisScript<T> script, List<String> keys, List<String> args) {
+            return CompletableFuture.completedFuture((T) REPLY);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T executeSync(RedisScript<T> script, List<String> keys, List<String> args) {
+            return (T) REPLY;
+        }
+    }
+}
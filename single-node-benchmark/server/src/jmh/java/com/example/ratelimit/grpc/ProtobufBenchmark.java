@@ -0,0 +1,65 @@
+package com.example.ratelimit.grpc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Wire cost of one Limit call outside gRPC: parsing the request and building plus serializing the response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtobufBenchmark {
+
+    private byte[] requestBytes;
+
+    @Setup
+    public void setUp() {
+        requestBytes = LimitRequest.newBuilder()
+                .setKey("hundred_keys_hot_42")
+                .setRequestId(123_456_789L)
+                .setLimit(1000)
+                .build()
+                .toByteArray();
+    }
+
+    @Benchmark
+    public LimitRequest parseRequest() throws InvalidProtocolBufferException {
+        return LimitRequest.parseFrom(requestBytes);
+    }
+
+    /**
+     * Parse plus the String decode the handler triggers with {@code getKey()}.
+     */
+    @Benchmark
+    public String parseRequestAndKey() throws InvalidProtocolBufferException {
+        return LimitRequest.parseFrom(requestBytes).getKey();
+    }
+
+    @Benchmark
+    public byte[] buildResponse() {
+        return LimitResponse.newBuilder()
+                .setCount(42)
+                .setRequestId(123_456_789L)
+                .setAllowed(true)
+                .setRemaining(958)
+                .setResetMillis(731)
+                .build()
+                .toByteArray();
+    }
+}
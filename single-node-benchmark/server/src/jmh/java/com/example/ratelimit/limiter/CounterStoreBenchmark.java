@@ -0,0 +1,95 @@
+package com.example.ratelimit.limiter;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Increment-and-read of a per-key window count over a large live key set: {@link OffHeapCounterStore} against
+ * {@code ConcurrentHashMap<String, LongAdder>}, both filled with every key before measuring. The off-heap store
+ * gets a budget of four slots per key. Run with {@code -prof gc} (the jmh task's default) to compare allocation
+ * and GC time next to the score, e.g. {@code -PjmhArgs="CounterStore -t 4"}; the 10M case needs a few GiB of
+ * heap for the map and the key strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class CounterStoreBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int keys;
+
+    private String[] keyNames;
+    private long[] keyHashes;
+    private ConcurrentHashMap<String, LongAdder> map;
+    private OffHeapCounterStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keyNames = new String[keys];
+        keyHashes = new long[keys];
+        map = new ConcurrentHashMap<>(keys * 2);
+        // One hour, so the measurement never crosses a bucket boundary and every key stays live.
+        store = OffHeapCounterStore.withBudget((long) keys * 4 * Long.BYTES, Duration.ofHours(1));
+        for (int i = 0; i < keys; i++) {
+            keyNames[i] = "hundred_keys_hot_" + i;
+            map.computeIfAbsent(keyNames[i], k -> new LongAdder()).increment();
+            keyHashes[i] = OffHeapCounterStore.hash(keyNames[i]);
+            store.increment(keyHashes[i], 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        long rejected = 0;
+        for (String key : keyNames) {
+            if (store.get(OffHeapCounterStore.hash(key)) == 0) {
+                rejected++;
+            }
+        }
+        System.out.printf("%noff-heap store: %d slots, %d MiB, %d of %d keys without a slot%n",
+                store.capacity(), store.memoryBytes() >> 20, rejected, keys);
+    }
+
+    @Benchmark
+    public long concurrentHashMap() {
+        LongAdder count = map.computeIfAbsent(keyNames[ThreadLocalRandom.current().nextInt(keys)], k -> new LongAdder());
+        count.increment();
+        return count.sum();
+    }
+
+    /**
+     * The key's hash is computed up front, as the map's String keys cache theirs.
+     */
+    @Benchmark
+    public long offHeapStore() {
+        return store.increment(keyHashes[ThreadLocalRandom.current().nextInt(keys)], 1);
+    }
+
+    /**
+     * Hashing the key on every call, as for a key that arrives fresh with each request.
+     */
+    @Benchmark
+    public long offHeapStoreHashingKey() {
+        return store.increment(OffHeapCounterStore.hash(keyNames[ThreadLocalRandom.current().nextInt(keys)]), 1);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.ratelimit.redis;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.example.ratelimit.algorithm.RateLimitDecision;
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.config.RedisConfig;
+import com.google.protobuf.ByteString;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * One fixed-window script call per operation on {@link StubRedis} connections, through each client the
+ * service can use: the raw {@link RedisLimiterClient} ({@code <ByteString, byte[]>}, reply decoded straight into
+ * a decision) against the {@link ScriptExecutor} paths ({@code <String, String>}, list reply mapped by
+ * {@link RateLimitDecision#fromReply}). Lettuce's encoding and decoding are included, the network is not.
+ * Run with {@code -prof gc} (the default of the jmh task) to compare allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScriptClientBenchmark {
+
+    private static final long LIMIT = 1000;
+    private static final long WINDOW_MILLIS = 1000;
+
+    private RedisLimiterClient rawClient;
+    private ScriptExecutor scriptExecutor;
+    private RedisScript<List<Long>> script;
+    private List<String> args;
+    private ByteString key;
+
+    @Setup
+    public void setUp() throws Exception {
+        RateLimitProperties properties = new RateLimitProperties();
+        script = new RedisConfig().rateLimitScript();
+        scriptExecutor = StubRedis.scriptExecutor(StubRedis.DECISION_REPLY, List.of(script), properties,
+                new SimpleMeterRegistry());
+        rawClient = StubRedis.limiterClient(scriptExecutor, script, properties);
+        args = List.of(Long.toString(WINDOW_MILLIS), Long.toString(LIMIT));
+        key = StubRedis.key("hundred_keys_hot_42");
+
+        CompletableFuture<RateLimitDecision> raw = new CompletableFuture<>();
+        rawClient.limit(key, LIMIT, WINDOW_MILLIS, (decision, error) -> {
+            if (error != null) {
+                raw.completeExceptionally(error);
+            } else {
+                raw.complete(decision);
+            }
+        });
+        check("raw client", raw.get(5, TimeUnit.SECONDS));
+        check("executeAsync", RateLimitDecision.fromReply(scriptExecutor
+                .executeAsync(script, List.of(key.toStringUtf8()), args).toCompletableFuture().get(5, TimeUnit.SECONDS)));
+        check("execute", RateLimitDecision.fromReply(scriptExecutor
+                .execute(script, List.of(key.toStringUtf8()), args).block()));
+    }
+
+    @Benchmark
+    public void rawClient(Blackhole blackhole) {
+        rawClient.limit(key, LIMIT, WINDOW_MILLIS, (decision, error) -> blackhole.consume(decision));
+    }
+
+    @Benchmark
+    public void scriptExecutorAsync(Blackhole blackhole) {
+        scriptExecutor.executeAsync(script, List.of(key.toStringUtf8()), args)
+                .whenComplete((reply, error) -> blackhole.consume(RateLimitDecision.fromReply(reply)));
+    }
+
+    @Benchmark
+    public void scriptExecutorReactive(Blackhole blackhole) {
+        scriptExecutor.execute(script, List.of(key.toStringUtf8()), args)
+                .subscribe(reply -> blackhole.consume(RateLimitDecision.fromReply(reply)));
+    }
+
+    private static void check(String path, RateLimitDecision decision) {
+        if (decision.count() != 42) {
+            throw new IllegalStateException(path + " returned " + decision);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.ratelimit.redis;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.example.ratelimit.config.RateLimitProperties;
+import com.google.protobuf.ByteString;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisAsyncCommandsImpl;
+import io.lettuce.core.RedisReactiveCommandsImpl;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.RedisCommand;
+import io.lettuce.core.protocol.RedisStateMachine;
+import io.lettuce.core.resource.ClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Lettuce connections that never touch the network but keep Lettuce's own work per command: every dispatched
+ * command is encoded into a scratch buffer as it would be for the socket, and a fixed RESP reply is decoded into
+ * its output by Lettuce's {@link RedisStateMachine} before the command completes on the calling thread. What a
+ * benchmark then measures is the client side of a Redis call: argument building, encoding, reply decoding and
+ * completion. Not thread-safe; use from one benchmark thread.
+ */
+public final class StubRedis {
+
+    /** The fixed-window script's {@code {allowed, count, remaining, reset_ms}} reply. */
+    public static final String DECISION_REPLY = "*4\r\n:1\r\n:42\r\n:958\r\n:731\r\n";
+
+    /** Only consulted for tracing and the like by Lettuce's command APIs; no thread ever runs a command. */
+    private static final ClientResources RESOURCES = ClientResources.builder()
+            .ioThreadPoolSize(1)
+            .computationThreadPoolSize(1)
+            .build();
+
+    /** Defaults, as read by the reactive API when it emits a reply. */
+    private static final ClientOptions OPTIONS = ClientOptions.create();
+
+    private StubRedis() {
+    }
+
+    /**
+     * A connection whose async and reactive APIs are Lettuce's real implementations over the stub.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> StatefulRedisConnection<K, V> connection(RedisCodec<K, V> codec, String reply) {
+        ByteBuf replyBytes = Unpooled.copiedBuffer(reply, StandardCharsets.US_ASCII);
+        ByteBuf scratch = Unpooled.buffer(256);
+        RedisStateMachine decoder = new RedisStateMachine();
+        Object[] apis = new Object[2];
+        StatefulRedisConnection<K, V> self = (StatefulRedisConnection<K, V>) Proxy.newProxyInstance(
+                StubRedis.class.getClassLoader(), new Class<?>[] { StatefulRedisConnection.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "async" -> apis[0];
+                    case "reactive" -> apis[1];
+                    case "dispatch" -> {
+                        if (!(args[0] instanceof RedisCommand<?, ?, ?> command)) {
+                            throw new UnsupportedOperationException("batched dispatch");
+                        }
+                        scratch.clear();
+                        command.encode(scratch);
+                        replyBytes.readerIndex(0);
+                        decoder.decode(replyBytes, command.getOutput());
+                        command.complete();
+                        yield command;
+                    }
+                    case "getResources" -> RESOURCES;
+                    case "getOptions" -> OPTIONS;
+                    case "isOpen" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "StubRedis";
+                    default -> null;
+                });
+        apis[0] = new RedisAsyncCommandsImpl<>(self, codec);
+        apis[1] = new RedisReactiveCommandsImpl<>(self, codec);
+        return self;
+    }
+
+    /**
+     * A {@link ScriptExecutor} on one stub connection answering {@code reply}.
+     */
+    public static ScriptExecutor scriptExecutor(String reply, List<RedisScript<?>> scripts,
+                                                RateLimitProperties properties,
+                                                MeterRegistry registry) {
+        return new ScriptExecutor(new ConnectionStripes<>(List.of(connection(StringCodec.UTF8, reply)),
+                properties.getConnections().getRouting()), scripts, properties, registry);
+    }
+
+    /**
+     * A {@link RedisLimiterClient} on one stub connection answering {@link #DECISION_REPLY}.
+     */
+    public static RedisLimiterClient limiterClient(ScriptExecutor scriptExecutor, RedisScript<List<Long>> script,
+                                                   RateLimitProperties properties) {
+        return new RedisLimiterClient(new ConnectionStripes<>(List.of(connection(ByteStringCodec.INSTANCE, DECISION_REPLY)),
+                properties.getConnections().getRouting()), scriptExecutor, script, properties);
+    }
+
+    /**
+     * Encodes a key the way requests carry it.
+     */
+    public static ByteString key(String key) {
+        return ByteString.copyFromUtf8(key);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.ratelimit.algorithm;
+
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.grpc.Algorithm;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+/**
+ * INCRBY/PEXPIRE counter that resets when the key expires. One integer per key, but up to twice the
+ * limit can pass around a window edge.
+ */
+@Component
+public class FixedWindowAlgorithm extends LuaRateLimitAlgorithm {
+
+    private static final String LUA = ARGS +
+            "local current = redis.call('INCRBY', KEYS[1], cost); " +
+            "if current == cost then " +
+            "   redis.call('PEXPIRE', KEYS[1], window); " +
+            "end; " +
+            "local ttl = redis.call('PTTL', KEYS[1]); " +
+            "if current > limit then " +
+            "   return {0, current, 0, ttl}; " +
+            "end; " +
+            "return {1, current, limit - current, ttl};";
+
+    public FixedWindowAlgorithm(ScriptExecutor scriptExecutor) {
+        super(scriptExecutor, LUA);
+    }
+
+    @Override
+    public Algorithm id() {
+        return Algorithm.FIXED_WINDOW;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.ratelimit.algorithm;
+
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.grpc.Algorithm;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+/**
+ * Generic cell rate algorithm: stores only the theoretical arrival time (TAT) as a plain string, so it
+ * is the cheapest smooth limiter in memory. Allows bursts of up to {@code limit} requests.
+ */
+@Component
+public class GcraAlgorithm extends LuaRateLimitAlgorithm {
+
+    private static final String LUA = NOW_MILLIS + ARGS +
+            "local interval = window / limit; " +
+            "local tat = tonumber(redis.call('GET', KEYS[1])) or now; " +
+            "if tat < now then tat = now; end; " +
+            "local next_tat = tat + interval * cost; " +
+            "local allow_at = next_tat - window; " +
+            "if allow_at > now then " +
+            "   return {0, math.ceil((tat - now) / interval), 0, math.ceil(allow_at - now)}; " +
+            "end; " +
+            "local ttl = math.ceil(next_tat - now); " +
+            "redis.call('SET', KEYS[1], string.format('%.3f', next_tat), 'PX', ttl); " +
+            "local used = math.ceil((next_tat - now) / interval); " +
+            "return {1, used, limit - used, ttl};";
+
+    public GcraAlgorithm(ScriptExecutor scriptExecutor) {
+        super(scriptExecutor, LUA);
+    }
+
+    @Override
+    public Algorithm id() {
+        return Algorithm.GCRA;
+    }
+}
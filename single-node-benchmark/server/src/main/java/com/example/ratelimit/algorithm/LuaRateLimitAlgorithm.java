@@ -0,0 +1,53 @@
+package com.example.ratelimit.algorithm;
+
+import java.util.List;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.example.ratelimit.redis.ScriptExecutor;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Base for algorithms implemented as one Lua script over a single key.
+ * <p>
+ * Every script takes {@code KEYS[1]} and {@code ARGV = {window_ms, limit, cost}} and returns
+ * {@code {allowed, count, remaining, reset_ms}}. Scripts that need the clock read it with
+ * {@code redis.call('TIME')}, so app instances with skewed clocks still agree.
+ */
+abstract class LuaRateLimitAlgorithm implements RateLimitAlgorithm {
+
+    /**
+     * Redis server time in milliseconds, as a Lua local named {@code now}.
+     */
+    static final String NOW_MILLIS = "local t = redis.call('TIME'); " +
+                                     "local now = t[1] * 1000 + math.floor(t[2] / 1000); ";
+
+    /**
+     * Parses the shared ARGV layout into Lua locals {@code window}, {@code limit} and {@code cost}.
+     */
+    static final String ARGS = "local window = tonumber(ARGV[1]); " +
+                               "local limit = tonumber(ARGV[2]); " +
+                               "local cost = tonumber(ARGV[3]); ";
+
+    private final ScriptExecutor scriptExecutor;
+    private final RedisScript<List<Long>> script;
+
+    @SuppressWarnings("unchecked")
+    LuaRateLimitAlgorithm(ScriptExecutor scriptExecutor, String lua) {
+        this.scriptExecutor = scriptExecutor;
+        DefaultRedisScript<List<Long>> script = new DefaultRedisScript<>();
+        script.setResultType((Class<List<Long>>) (Class<?>) List.class);
+        script.setScriptText(lua);
+        this.script = script;
+        scriptExecutor.register(script);
+    }
+
+    @Override
+    public Mono<RateLimitDecision> evaluate(String key, long cost, long limit, long windowMillis) {
+        return scriptExecutor.execute(script, List.of(key),
+                        List.of(Long.toString(windowMillis), Long.toString(limit), Long.toString(cost)))
+                .map(RateLimitDecision::fromReply);
+    }
+}
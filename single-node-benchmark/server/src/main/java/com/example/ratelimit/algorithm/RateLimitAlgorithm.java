@@ -0,0 +1,19 @@
+package com.example.ratelimit.algorithm;
+
+import com.example.ratelimit.grpc.Algorithm;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A Redis-backed rate-limit algorithm. Implementations keep all state of a key in a single Redis key so
+ * every decision is one script call on one slot.
+ */
+public interface RateLimitAlgorithm {
+
+    Algorithm id();
+
+    /**
+     * Consumes {@code cost} units of {@code key}'s quota of {@code limit} per {@code windowMillis}.
+     */
+    Mono<RateLimitDecision> evaluate(String key, long cost, long limit, long windowMillis);
+}
@@ -0,0 +1,66 @@
+package com.example.ratelimit.algorithm;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.grpc.Algorithm;
+
+/**
+ * Picks the algorithm for a request: the one named in the request if any, otherwise the first configured
+ * key prefix that matches.
+ */
+@Component
+public class RateLimitAlgorithms {
+
+    private final Map<Algorithm, RateLimitAlgorithm> byId = new EnumMap<>(Algorithm.class);
+    private final Map<String, Algorithm> prefixes;
+
+    public RateLimitAlgorithms(List<RateLimitAlgorithm> algorithms, RateLimitProperties properties) {
+        for (RateLimitAlgorithm algorithm : algorithms) {
+            byId.put(algorithm.id(), algorithm);
+        }
+        this.prefixes = Collections.unmodifiableMap(new LinkedHashMap<>(properties.getAlgorithms().getPrefixes()));
+        for (Algorithm id : prefixes.values()) {
+            get(id);
+        }
+    }
+
+    /**
+     * Whether {@link #resolve} needs the key at all, i.e. whether any key prefixes are configured.
+     */
+    public boolean hasPrefixes() {
+        return !prefixes.isEmpty();
+    }
+
+    /**
+     * @return the algorithm for this key, or {@code null} to use the default fixed-window script
+     * @throws IllegalArgumentException if {@code requested} is not a known algorithm
+     */
+    public RateLimitAlgorithm resolve(String key, Algorithm requested) {
+        if (requested != Algorithm.ALGORITHM_UNSPECIFIED) {
+            return get(requested);
+        }
+        if (!prefixes.isEmpty()) {
+            for (Map.Entry<String, Algorithm> entry : prefixes.entrySet()) {
+                if (key.startsWith(entry.getKey())) {
+                    return byId.get(entry.getValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    private RateLimitAlgorithm get(Algorithm id) {
+        RateLimitAlgorithm algorithm = byId.get(id);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("unsupported rate limit algorithm: " + id);
+        }
+        return algorithm;
+    }
+}
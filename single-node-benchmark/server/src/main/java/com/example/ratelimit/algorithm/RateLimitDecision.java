@@ -0,0 +1,28 @@
+package com.example.ratelimit.algorithm;
+
+import java.util.List;
+
+/**
+ * Outcome of one rate-limit check.
+ *
+ * @param allowed     whether the request fits in the quota
+ * @param count       quota consumed in the current window, including this request if it was allowed
+ * @param remaining   quota left after this request
+ * @param resetMillis milliseconds until the quota resets (or, when denied, until a retry can succeed)
+ */
+public record RateLimitDecision(boolean allowed, long count, long remaining, long resetMillis) {
+
+    /**
+     * Decodes the {@code {allowed, count, remaining, reset_ms}} reply shared by all algorithm scripts.
+     */
+    public static RateLimitDecision fromReply(List<Long> reply) {
+        return new RateLimitDecision(reply.get(0) == 1L, reply.get(1), reply.get(2), reply.get(3));
+    }
+
+    /**
+     * Fixed-window decision for a counter that already includes this request.
+     */
+    public static RateLimitDecision of(long count, long limit, long resetMillis) {
+        return new RateLimitDecision(count <= limit, count, Math.max(0, limit - count), Math.max(0, resetMillis));
+    }
+}
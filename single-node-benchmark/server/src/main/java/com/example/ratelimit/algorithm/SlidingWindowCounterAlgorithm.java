@@ -0,0 +1,49 @@
+package com.example.ratelimit.algorithm;
+
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.grpc.Algorithm;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+/**
+ * Approximate sliding window: the previous window's count weighted by how much of it still overlaps,
+ * plus the current window's count. Both counters and the window start live in one small hash.
+ */
+@Component
+public class SlidingWindowCounterAlgorithm extends LuaRateLimitAlgorithm {
+
+    private static final String LUA = NOW_MILLIS + ARGS +
+            "local start = now - (now % window); " +
+            "local state = redis.call('HMGET', KEYS[1], 's', 'c', 'p'); " +
+            "local current = tonumber(state[2]) or 0; " +
+            "local previous = tonumber(state[3]) or 0; " +
+            "local stored = tonumber(state[1]); " +
+            "if stored ~= start then " +
+            "   previous = (stored == start - window) and current or 0; " +
+            "   current = 0; " +
+            "end; " +
+            "local elapsed = now - start; " +
+            "local estimated = math.floor(previous * (window - elapsed) / window) + current; " +
+            "local allowed = 0; " +
+            "if estimated + cost <= limit then " +
+            "   allowed = 1; " +
+            "   current = current + cost; " +
+            "   estimated = estimated + cost; " +
+            "end; " +
+            "if allowed == 1 or stored ~= start then " +
+            "   redis.call('HSET', KEYS[1], 's', start, 'c', current, 'p', previous); " +
+            "   redis.call('PEXPIRE', KEYS[1], window * 2); " +
+            "end; " +
+            "local remaining = limit - estimated; " +
+            "if remaining < 0 then remaining = 0; end; " +
+            "return {allowed, estimated, remaining, window - elapsed};";
+
+    public SlidingWindowCounterAlgorithm(ScriptExecutor scriptExecutor) {
+        super(scriptExecutor, LUA);
+    }
+
+    @Override
+    public Algorithm id() {
+        return Algorithm.SLIDING_WINDOW_COUNTER;
+    }
+}
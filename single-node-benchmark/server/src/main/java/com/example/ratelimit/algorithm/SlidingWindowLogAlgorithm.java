@@ -0,0 +1,38 @@
+package com.example.ratelimit.algorithm;
+
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.grpc.Algorithm;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+/**
+ * Exact sliding window: a sorted set of admitted request timestamps. Only admitted requests are logged,
+ * which caps the set at {@code limit} members, but memory still grows linearly with the limit.
+ */
+@Component
+public class SlidingWindowLogAlgorithm extends LuaRateLimitAlgorithm {
+
+    private static final String LUA = NOW_MILLIS + ARGS +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - window); " +
+            "local count = redis.call('ZCARD', KEYS[1]); " +
+            "if count + cost > limit then " +
+            "   local oldest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES'); " +
+            "   local reset = oldest[2] and (tonumber(oldest[2]) + window - now) or window; " +
+            "   return {0, count, 0, reset}; " +
+            "end; " +
+            "for i = 1, cost do " +
+            "   redis.call('ZADD', KEYS[1], now, string.format('%d-%d', now, count + i)); " +
+            "end; " +
+            "redis.call('PEXPIRE', KEYS[1], window); " +
+            "count = count + cost; " +
+            "return {1, count, limit - count, window};";
+
+    public SlidingWindowLogAlgorithm(ScriptExecutor scriptExecutor) {
+        super(scriptExecutor, LUA);
+    }
+
+    @Override
+    public Algorithm id() {
+        return Algorithm.SLIDING_WINDOW_LOG;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.ratelimit.algorithm;
+
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.grpc.Algorithm;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+/**
+ * Token bucket holding up to {@code limit} tokens and refilling {@code limit} tokens per window. Tokens
+ * and the last refill time live in one hash; the key expires once the bucket would be full again.
+ */
+@Component
+public class TokenBucketAlgorithm extends LuaRateLimitAlgorithm {
+
+    private static final String LUA = NOW_MILLIS + ARGS +
+            "local rate = limit / window; " +
+            "local state = redis.call('HMGET', KEYS[1], 't', 'ts'); " +
+            "local tokens = tonumber(state[1]) or limit; " +
+            "local last = tonumber(state[2]) or now; " +
+            "tokens = math.min(limit, tokens + math.max(0, now - last) * rate); " +
+            "local allowed = 0; " +
+            "local reset; " +
+            "if tokens >= cost then " +
+            "   allowed = 1; " +
+            "   tokens = tokens - cost; " +
+            "   reset = math.ceil((limit - tokens) / rate); " +
+            "else " +
+            "   reset = math.ceil((cost - tokens) / rate); " +
+            "end; " +
+            "redis.call('HSET', KEYS[1], 't', tokens, 'ts', now); " +
+            "redis.call('PEXPIRE', KEYS[1], window); " +
+            "local remaining = math.floor(tokens); " +
+            "return {allowed, limit - remaining, remaining, reset};";
+
+    public TokenBucketAlgorithm(ScriptExecutor scriptExecutor) {
+        super(scriptExecutor, LUA);
+    }
+
+    @Override
+    public Algorithm id() {
+        return Algorithm.TOKEN_BUCKET;
+    }
+}
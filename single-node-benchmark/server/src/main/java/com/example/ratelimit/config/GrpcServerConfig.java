@@ -0,0 +1,30 @@
+package com.example.ratelimit.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+
+@Configuration
+public class GrpcServerConfig {
+
+    /**
+     * Virtual-thread-per-call executor for the {@code virtual} engine, so handlers can block on Redis without
+     * tying up a platform thread.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "ratelimit", name = "engine", havingValue = "virtual")
+    public ExecutorService grpcVirtualThreadExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "ratelimit", name = "engine", havingValue = "virtual")
+    public GrpcServerConfigurer virtualThreadServerConfigurer(ExecutorService grpcVirtualThreadExecutor) {
+        return serverBuilder -> serverBuilder.executor(grpcVirtualThreadExecutor);
+    }
+}
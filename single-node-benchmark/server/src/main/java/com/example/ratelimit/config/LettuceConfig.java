@@ -0,0 +1,97 @@
+package com.example.ratelimit.config;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.ratelimit.redis.ConnectionStripes;
+import com.example.ratelimit.redis.OutstandingCommands;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultEventLoopGroupProvider;
+import io.lettuce.core.resource.EventLoopGroupProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Native Lettuce client for the script hot path, next to the Spring Data template used for everything
+ * else. Shares Boot's {@link ClientResources} (event loops, metrics) and the {@code spring.data.redis.*}
+ * connection settings.
+ */
+@Configuration
+public class LettuceConfig {
+
+    /**
+     * Event loop threads reserved for the hot-path connections when {@code ratelimit.connections.io-threads}
+     * is set.
+     */
+    @Bean
+    @ConditionalOnExpression("${ratelimit.connections.io-threads:0} > 0")
+    public EventLoopGroupProvider rateLimitEventLoops(RateLimitProperties rateLimitProperties) {
+        return new DedicatedEventLoops(rateLimitProperties.getConnections().getIoThreads());
+    }
+
+    /**
+     * Also counts the commands each endpoint still owes a reply for; the listener has to be in place before
+     * the first connection is opened.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient rateLimitRedisClient(RedisProperties properties, ClientResources clientResources,
+                                            ObjectProvider<EventLoopGroupProvider> rateLimitEventLoops,
+                                            MeterRegistry meterRegistry) {
+        RedisURI.Builder uri = RedisURI.builder()
+                .withHost(properties.getHost())
+                .withPort(properties.getPort())
+                .withDatabase(properties.getDatabase());
+        if (properties.getPassword() != null) {
+            if (properties.getUsername() != null) {
+                uri.withAuthentication(properties.getUsername(), properties.getPassword());
+            } else {
+                uri.withPassword(properties.getPassword().toCharArray());
+            }
+        }
+        if (properties.getTimeout() != null) {
+            uri.withTimeout(properties.getTimeout());
+        }
+        EventLoopGroupProvider eventLoops = rateLimitEventLoops.getIfAvailable();
+        // Everything else (latency recorder, timers, computation threads) stays shared with Boot's resources.
+        ClientResources resources = eventLoops == null
+                ? clientResources
+                : clientResources.mutate().eventLoopGroupProvider(eventLoops).build();
+        RedisClient client = RedisClient.create(resources, uri.build());
+        client.addListener(new OutstandingCommands(properties.getHost() + ":" + properties.getPort(), meterRegistry));
+        return client;
+    }
+
+    /**
+     * {@code ratelimit.connections.count} multiplexed connections (one by default); Lettuce pipelines
+     * concurrent commands on each, so no pool is needed.
+     */
+    @Bean(destroyMethod = "close")
+    public ConnectionStripes<String, String> rateLimitConnections(RedisClient rateLimitRedisClient,
+                                                                  RateLimitProperties properties) {
+        return ConnectionStripes.connect(rateLimitRedisClient, StringCodec.UTF8, properties.getConnections());
+    }
+
+    /**
+     * Event loop provider that shuts its threads down with the application context.
+     */
+    static final class DedicatedEventLoops extends DefaultEventLoopGroupProvider implements DisposableBean {
+
+        DedicatedEventLoops(int threads) {
+            super(threads);
+        }
+
+        @Override
+        public void destroy() {
+            shutdown(0, 2, TimeUnit.SECONDS);
+        }
+    }
+}
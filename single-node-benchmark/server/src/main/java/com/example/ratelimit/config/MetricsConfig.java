@@ -1,43 +1,42 @@
 package com.example.ratelimit.config;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import io.lettuce.core.metrics.MicrometerOptions;
 import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.EventLoopGroupProvider;
+import io.lettuce.core.resource.Transports;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.MeterBinder;
-import org.springframework.beans.factory.annotation.Autowired;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
-
-import java.util.concurrent.atomic.AtomicLong;
 
 @Configuration
 public class MetricsConfig {
 
     /**
-     * Custom metrics binder to expose additional performance metrics
+     * Custom metrics binder to expose additional performance metrics. Thread counts come from
+     * {@link ThreadMXBean}, which keeps them as running counters, so a scrape does not walk the threads.
      */
     @Bean
     public MeterBinder customMetricsBinder(MeterRegistry registry) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
         return (reg) -> {
-            // Thread pool metrics
-            Gauge.builder("app.thread.active", Thread::activeCount)
-                    .description("Number of active threads in the JVM")
+            // Thread metrics
+            Gauge.builder("app.thread.active", threads, ThreadMXBean::getThreadCount)
+                    .description("Number of live threads in the JVM")
                     .register(reg);
 
-            Gauge.builder("app.thread.daemon", () -> {
-                        ThreadGroup rootGroup = Thread.currentThread().getThreadGroup();
-                        while (rootGroup.getParent() != null) {
-                            rootGroup = rootGroup.getParent();
-                        }
-                        Thread[] threads = new Thread[rootGroup.activeCount()];
-                        rootGroup.enumerate(threads);
-                        long daemonCount = 0;
-                        for (Thread t : threads) {
-                            if (t != null && t.isDaemon()) daemonCount++;
-                        }
-                        return daemonCount;
-                    })
+            Gauge.builder("app.thread.daemon", threads, ThreadMXBean::getDaemonThreadCount)
                     .description("Number of daemon threads")
                     .register(reg);
 
@@ -49,25 +48,78 @@ public class MetricsConfig {
     }
 
     /**
-     * Expose Lettuce connection pool metrics
+     * Options for the Lettuce command latency recorder that Boot installs on the shared {@link ClientResources}:
+     * {@code lettuce.command.completion} and {@code lettuce.command.firstresponse} per command type and Redis
+     * endpoint, with histogram buckets so Prometheus can aggregate percentiles across instances.
      */
     @Bean
-    public MeterBinder lettuceMetricsBinder(@Autowired(required = false) LettuceConnectionFactory connectionFactory,
-                                            MeterRegistry registry) {
-        return (reg) -> {
-            if (connectionFactory != null) {
-                // Register pool metrics if available
-                Gauge.builder("redis.connection.active", () -> {
-                            try {
-                                // Attempt to get pool metrics
-                                return connectionFactory.getConnection() != null ? 1 : 0;
-                            } catch (Exception e) {
-                                return -1;
-                            }
-                        })
-                        .description("Redis connection pool active status")
-                        .register(reg);
+    public MicrometerOptions lettuceMicrometerOptions() {
+        return MicrometerOptions.builder()
+                .histogram(true)
+                .minLatency(Duration.ofNanos(50_000))
+                .maxLatency(Duration.ofSeconds(1))
+                .build();
+    }
+
+    /**
+     * Tasks waiting on each Lettuce I/O event loop and computation thread. A growing queue means replies are
+     * decoded or completed later than Redis sent them, which the command latency alone cannot tell apart from
+     * a slow Redis.
+     */
+    @Bean(destroyMethod = "close")
+    public LettuceEventLoopMetrics lettuceEventLoopMetrics(ClientResources clientResources,
+                                                           ObjectProvider<EventLoopGroupProvider> rateLimitEventLoops) {
+        return new LettuceEventLoopMetrics(clientResources, rateLimitEventLoops.getIfAvailable());
+    }
+
+    /**
+     * Holds a reference to the event loop groups Lettuce connects with (a provider shares one group per
+     * transport and counts references), released again on shutdown.
+     */
+    static final class LettuceEventLoopMetrics implements MeterBinder, AutoCloseable {
+
+        private final ClientResources clientResources;
+        private final EventLoopGroupProvider rateLimitEventLoops;
+        private final EventLoopGroup ioGroup;
+        private final EventLoopGroup rateLimitIoGroup;
+
+        LettuceEventLoopMetrics(ClientResources clientResources, EventLoopGroupProvider rateLimitEventLoops) {
+            this.clientResources = clientResources;
+            this.rateLimitEventLoops = rateLimitEventLoops;
+            this.ioGroup = clientResources.eventLoopGroupProvider().allocate(Transports.eventLoopGroupClass());
+            this.rateLimitIoGroup = rateLimitEventLoops != null
+                    ? rateLimitEventLoops.allocate(Transports.eventLoopGroupClass())
+                    : null;
+        }
+
+        @Override
+        public void bindTo(MeterRegistry registry) {
+            bindGroup(registry, "io", ioGroup);
+            bindGroup(registry, "computation", clientResources.eventExecutorGroup());
+            if (rateLimitIoGroup != null) {
+                bindGroup(registry, "ratelimit-io", rateLimitIoGroup);
             }
-        };
+        }
+
+        private static void bindGroup(MeterRegistry registry, String name, EventExecutorGroup group) {
+            int index = 0;
+            for (EventExecutor executor : group) {
+                if (executor instanceof SingleThreadEventExecutor loop) {
+                    Gauge.builder("lettuce.eventloop.pending.tasks", loop, SingleThreadEventExecutor::pendingTasks)
+                            .description("Tasks queued on a Lettuce event loop thread")
+                            .tag("group", name)
+                            .tag("loop", Integer.toString(index++))
+                            .register(registry);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            clientResources.eventLoopGroupProvider().release(ioGroup, 0, 2, TimeUnit.SECONDS);
+            if (rateLimitIoGroup != null) {
+                rateLimitEventLoops.release(rateLimitIoGroup, 0, 2, TimeUnit.SECONDS);
+            }
+        }
     }
 }
@@ -0,0 +1,395 @@
+package com.example.ratelimit.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import com.example.ratelimit.grpc.Algorithm;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+/**
+ * Tunables for the rate limit hot path, bound from the {@code ratelimit.*} keys in application.yml.
+ */
+@ConfigurationProperties(prefix = "ratelimit")
+public class RateLimitProperties {
+
+    /**
+     * How the gRPC handlers drive Redis; see {@link Engine}. Selected by the {@code async} and {@code virtual}
+     * Spring profiles.
+     */
+    private Engine engine = Engine.REACTIVE;
+
+    /**
+     * Default window length in seconds; LimitRequest.window_millis overrides it per request.
+     */
+    private long windowSeconds = 1;
+
+    /**
+     * Default per-window limit; LimitRequest.limit overrides it per request. The near-cache tier only serves
+     * requests that use this value.
+     */
+    private long limit = 1000;
+
+    private final NearCache nearCache = new NearCache();
+
+    private final DenyCache denyCache = new DenyCache();
+
+    private final Batching batching = new Batching();
+
+    private final Algorithms algorithms = new Algorithms();
+
+    private final Scripts scripts = new Scripts();
+
+    private final StageTiming stageTiming = new StageTiming();
+
+    private final Connections connections = new Connections();
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    public DenyCache getDenyCache() {
+        return denyCache;
+    }
+
+    public Batching getBatching() {
+        return batching;
+    }
+
+    public Algorithms getAlgorithms() {
+        return algorithms;
+    }
+
+    public Scripts getScripts() {
+        return scripts;
+    }
+
+    public StageTiming getStageTiming() {
+        return stageTiming;
+    }
+
+    public Connections getConnections() {
+        return connections;
+    }
+
+    public enum Engine {
+        /** Reactor pipelines on Lettuce's reactive API (default). */
+        REACTIVE,
+        /** Lettuce async API with CompletionStage callbacks, no Reactor on the hot path. */
+        ASYNC,
+        /** Blocking Lettuce sync calls on a virtual-thread-per-call gRPC executor. */
+        VIRTUAL
+    }
+
+    /**
+     * In-process counting tier in front of Redis for hot keys.
+     */
+    public static class NearCache {
+
+        private boolean enabled = false;
+
+        /**
+         * Fraction of the limit this instance may count locally without asking Redis.
+         */
+        private double maxError = 0.05;
+
+        /**
+         * How often local increments are flushed to Redis with a single INCRBY per key.
+         */
+        private Duration syncInterval = Duration.ofMillis(50);
+
+        /**
+         * Upper bound on tracked keys; keys beyond it bypass the local tier.
+         */
+        private int maxKeys = 100_000;
+
+        /**
+         * Keys not touched for this long are evicted on the next flush.
+         */
+        private Duration idleTimeout = Duration.ofSeconds(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getMaxError() {
+            return maxError;
+        }
+
+        public void setMaxError(double maxError) {
+            this.maxError = maxError;
+        }
+
+        public Duration getSyncInterval() {
+            return syncInterval;
+        }
+
+        public void setSyncInterval(Duration syncInterval) {
+            this.syncInterval = syncInterval;
+        }
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+    }
+
+    /**
+     * Micro-batching of concurrent Limit calls into one multi-key script call.
+     */
+    /**
+     * In-process cache of keys Redis has denied, answered locally until the end of the current bucket.
+     */
+    public static class DenyCache {
+
+        private boolean enabled = false;
+
+        /**
+         * Off-heap table size; rounded down to a power-of-two number of 8-byte slots, at most 1 GiB.
+         */
+        private DataSize memory = DataSize.ofMegabytes(64);
+
+        /**
+         * A denial is cached until the end of the bucket it was seen in, and only if the key's window in Redis
+         * outlasts that bucket.
+         */
+        private Duration bucket = Duration.ofMillis(100);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMemory() {
+            return memory;
+        }
+
+        public void setMemory(DataSize memory) {
+            this.memory = memory;
+        }
+
+        public Duration getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(Duration bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    public static class Batching {
+
+        private boolean enabled = false;
+
+        /**
+         * A batch is flushed as soon as it holds this many requests.
+         */
+        private int maxBatchSize = 64;
+
+        /**
+         * Longest time the first request of a batch waits for more requests to join.
+         */
+        private Duration maxDelay = Duration.ofNanos(200_000);
+
+        /**
+         * Requests waiting for a batch beyond this are rejected instead of queued.
+         */
+        private int queueCapacity = 65_536;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public Duration getMaxDelay() {
+            return maxDelay;
+        }
+
+        public void setMaxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * Selection of the pluggable rate-limit algorithms.
+     */
+    public static class Algorithms {
+
+        /**
+         * Key prefix to algorithm, checked in declaration order when a request does not name an algorithm.
+         * Keys that match nothing use the default fixed-window script.
+         */
+        private Map<String, Algorithm> prefixes = new LinkedHashMap<>();
+
+        public Map<String, Algorithm> getPrefixes() {
+            return prefixes;
+        }
+
+        public void setPrefixes(Map<String, Algorithm> prefixes) {
+            this.prefixes = prefixes;
+        }
+    }
+
+    /**
+     * How the Lua scripts are invoked.
+     */
+    public static class Scripts {
+
+        /**
+         * EVALSHA of scripts preloaded with SCRIPT LOAD, or FCALL of a Redis 7 function library.
+         */
+        private ScriptExecutor.Mode mode = ScriptExecutor.Mode.EVALSHA;
+
+        public ScriptExecutor.Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(ScriptExecutor.Mode mode) {
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * Native Lettuce connections of the script hot path, see {@code ConnectionStripes}.
+     */
+    public static class Connections {
+
+        /**
+         * Connections opened by each hot-path client (the script executor, and the raw client of the async
+         * engine).
+         */
+        private int count = 1;
+
+        private Routing routing = Routing.KEY_HASH;
+
+        /**
+         * Event loop threads reserved for these connections; 0 shares Boot's Lettuce event loops. Netty hands
+         * channels to loops in turn, so setting this to {@code count} gives every connection its own thread.
+         */
+        private int ioThreads = 0;
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public Routing getRouting() {
+            return routing;
+        }
+
+        public void setRouting(Routing routing) {
+            this.routing = routing;
+        }
+
+        public int getIoThreads() {
+            return ioThreads;
+        }
+
+        public void setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+        }
+
+        public enum Routing {
+            /** A key always uses the same connection, keeping its commands in order. */
+            KEY_HASH,
+            /** Calls take the connections in turn, spreading even a single hot key. */
+            ROUND_ROBIN
+        }
+    }
+
+    /**
+     * Per-stage latency breakdown of unary calls, see {@code StageTimings}.
+     */
+    public static class StageTiming {
+
+        private boolean enabled = false;
+
+        /**
+         * Fraction of calls timed; the rest only pay for one random draw.
+         */
+        private double sampleRate = 0.01;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.ratelimit.config;
 
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -27,15 +28,78 @@ public class RedisConfig {
         return new ReactiveStringRedisTemplate(connectionFactory, context);
     }
 
+    /**
+     * Fixed-window counter. ARGV[1] is the window in milliseconds and ARGV[2] the limit. Returns
+     * {@code {allowed, count, remaining, reset_ms}} so callers get the decision and Retry-After in one EVAL.
+     */
     @Bean
-    public RedisScript<Long> rateLimitScript() {
+    @SuppressWarnings("unchecked")
+    public RedisScript<List<Long>> rateLimitScript() {
         String lua = "local current = redis.call('INCR', KEYS[1]); " +
+                     "local ttl; " +
                      "if current == 1 then " +
-                     "   redis.call('EXPIRE', KEYS[1], ARGV[1]); " +
+                     "   redis.call('PEXPIRE', KEYS[1], ARGV[1]); " +
+                     "   ttl = tonumber(ARGV[1]); " +
+                     "else " +
+                     "   ttl = redis.call('PTTL', KEYS[1]); " +
                      "end; " +
-                     "return current;";
-        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
-        script.setResultType(Long.class);
+                     "local limit = tonumber(ARGV[2]); " +
+                     "if current > limit then " +
+                     "   return {0, current, 0, ttl}; " +
+                     "end; " +
+                     "return {1, current, limit - current, ttl};";
+        DefaultRedisScript<List<Long>> script = new DefaultRedisScript<>();
+        script.setResultType((Class<List<Long>>) (Class<?>) List.class);
+        script.setScriptText(lua);
+        return script;
+    }
+
+    /**
+     * Same fixed-window counter as {@link #rateLimitScript()}, but adds ARGV[2] in one INCRBY so the
+     * near-cache tier can flush many local increments per round trip. Returns {@code {count, ttl_ms}} and
+     * leaves the limit check to the caller.
+     */
+    @Bean
+    @SuppressWarnings("unchecked")
+    public RedisScript<List<Long>> nearCacheSyncScript() {
+        String lua = "local current = redis.call('INCRBY', KEYS[1], ARGV[2]); " +
+                     "if current == tonumber(ARGV[2]) then " +
+                     "   redis.call('PEXPIRE', KEYS[1], ARGV[1]); " +
+                     "   return {current, tonumber(ARGV[1])}; " +
+                     "end; " +
+                     "return {current, redis.call('PTTL', KEYS[1])};";
+        DefaultRedisScript<List<Long>> script = new DefaultRedisScript<>();
+        script.setResultType((Class<List<Long>>) (Class<?>) List.class);
+        script.setScriptText(lua);
+        return script;
+    }
+
+    /**
+     * Multi-key variant of {@link #rateLimitScript()} used by the batcher and LimitBatch: one INCRBY/PEXPIRE
+     * per entry in KEYS. ARGV[1] is the window in milliseconds and ARGV[i + 1] the cost of KEYS[i], defaulting
+     * to 1 when absent. Returns {@code count, ttl_ms} pairs flattened in KEYS order. Keys may repeat within a
+     * batch.
+     */
+    @Bean
+    @SuppressWarnings("unchecked")
+    public RedisScript<List<Long>> batchRateLimitScript() {
+        String lua = "local window = tonumber(ARGV[1]); " +
+                     "local results = {}; " +
+                     "for i, key in ipairs(KEYS) do " +
+                     "   local cost = tonumber(ARGV[i + 1]) or 1; " +
+                     "   local current = redis.call('INCRBY', key, cost); " +
+                     "   local ttl = window; " +
+                     "   if current == cost then " +
+                     "      redis.call('PEXPIRE', key, window); " +
+                     "   else " +
+                     "      ttl = redis.call('PTTL', key); " +
+                     "   end; " +
+                     "   results[2 * i - 1] = current; " +
+                     "   results[2 * i] = ttl; " +
+                     "end; " +
+                     "return results;";
+        DefaultRedisScript<List<Long>> script = new DefaultRedisScript<>();
+        script.setResultType((Class<List<Long>>) (Class<?>) List.class);
         script.setScriptText(lua);
         return script;
     }
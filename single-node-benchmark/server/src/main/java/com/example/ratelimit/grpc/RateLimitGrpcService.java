@@ -1,33 +1,82 @@
 package com.example.ratelimit.grpc;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.script.RedisScript;
 
+import com.example.ratelimit.algorithm.RateLimitAlgorithm;
+import com.example.ratelimit.algorithm.RateLimitAlgorithms;
+import com.example.ratelimit.algorithm.RateLimitDecision;
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.limiter.DenyCache;
+import com.example.ratelimit.limiter.LimitBatcher;
+import com.example.ratelimit.limiter.NearCache;
+import com.example.ratelimit.redis.RedisLimiterClient;
+import com.example.ratelimit.redis.ScriptExecutor;
+
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
+import reactor.core.publisher.Mono;
 
 @GrpcService
 public class RateLimitGrpcService extends RateLimitServiceGrpc.RateLimitServiceImplBase {
 
     private final ReactiveStringRedisTemplate redisTemplate;
-    private final RedisScript<Long> rateLimitScript;
+    private final ScriptExecutor scriptExecutor;
+    private final RedisScript<List<Long>> rateLimitScript;
+    private final RedisScript<List<Long>> batchRateLimitScript;
+    private final String windowArg;
+    private final List<String> defaultScriptArgs;
+    private final long limit;
+    private final long windowMillis;
+    private final RateLimitProperties.Engine engine;
+    private final RateLimitAlgorithms algorithms;
+    private final NearCache nearCache;
+    private final LimitBatcher batcher;
+    private final RedisLimiterClient limiterClient;
+    private final DenyCache denyCache;
     private final Counter totalRequests;
     private final Counter redisErrors;
     private final Timer redisTimer;
 
     public RateLimitGrpcService(ReactiveStringRedisTemplate redisTemplate,
-                                RedisScript<Long> rateLimitScript,
+                                ScriptExecutor scriptExecutor,
+                                @Qualifier("rateLimitScript") RedisScript<List<Long>> rateLimitScript,
+                                @Qualifier("batchRateLimitScript") RedisScript<List<Long>> batchRateLimitScript,
+                                RateLimitProperties properties,
+                                RateLimitAlgorithms algorithms,
+                                ObjectProvider<NearCache> nearCache,
+                                ObjectProvider<LimitBatcher> batcher,
+                                ObjectProvider<RedisLimiterClient> limiterClient,
+                                ObjectProvider<DenyCache> denyCache,
                                 MeterRegistry meterRegistry) {
         this.redisTemplate = redisTemplate;
+        this.scriptExecutor = scriptExecutor;
         this.rateLimitScript = rateLimitScript;
+        this.batchRateLimitScript = batchRateLimitScript;
+        this.limit = properties.getLimit();
+        this.windowMillis = Duration.ofSeconds(properties.getWindowSeconds()).toMillis();
+        this.engine = properties.getEngine();
+        this.windowArg = String.valueOf(windowMillis);
+        this.defaultScriptArgs = List.of(windowArg, String.valueOf(limit));
+        this.algorithms = algorithms;
+        this.nearCache = nearCache.getIfAvailable();
+        this.batcher = batcher.getIfAvailable();
+        this.limiterClient = limiterClient.getIfAvailable();
+        this.denyCache = denyCache.getIfAvailable();
         this.totalRequests = meterRegistry.counter("ratelimit.requests.total");
         this.redisErrors = meterRegistry.counter("ratelimit.redis.errors");
         this.redisTimer = Timer.builder("ratelimit.redis.latency")
@@ -38,30 +87,429 @@ public class RateLimitGrpcService extends RateLimitServiceGrpc.RateLimitServiceI
 
     @Override
     public void limit(LimitRequest request, StreamObserver<LimitResponse> responseObserver) {
-        String key = request.getKey();
         totalRequests.increment();
-        long start = System.nanoTime();
-        redisTemplate.execute(rateLimitScript, List.of(key), List.of("1"))
-                .single()
-                .doOnTerminate(() -> redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
-                .map(count -> LimitResponse.newBuilder().setCount(count).build())
-                .subscribe(response -> {
-                    responseObserver.onNext(response);
-                    responseObserver.onCompleted();
-                }, error -> {
+        StageTimings.Call stages = StageTimings.current();
+        if (isRaw(request)) {
+            RateLimitDecision denied = cachedDenial(request, limitOf(request), windowOf(request));
+            if (denied != null) {
+                responseObserver.onNext(toResponse(denied, request.getRequestId()));
+                responseObserver.onCompleted();
+                return;
+            }
+            stages.submitted();
+            limitRaw(request, (decision, error) -> {
+                stages.replied();
+                if (error != null) {
                     redisErrors.increment();
-                    responseObserver.onError(error);
-                });
+                    responseObserver.onError(toGrpcException("redis rateLimit failed", error));
+                    return;
+                }
+                remember(request, limitOf(request), windowOf(request), decision);
+                responseObserver.onNext(toResponse(decision, request.getRequestId()));
+                responseObserver.onCompleted();
+            });
+            return;
+        }
+        String key = request.getKey();
+        RateLimitAlgorithm algorithm;
+        try {
+            algorithm = algorithms.resolve(key, request.getAlgorithm());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        long limit = limitOf(request);
+        long window = windowOf(request);
+        RateLimitDecision local = tryLocal(key, algorithm, limit, window);
+        if (local != null) {
+            responseObserver.onNext(toResponse(local, request.getRequestId()));
+            responseObserver.onCompleted();
+            return;
+        }
+        if (algorithm != null || usesTier(limit, window)) {
+            stages.submitted();
+            timed(executeTiered(key, algorithm, limit, window))
+                    .doOnTerminate(stages::replied)
+                    .map(decision -> toResponse(decision, request.getRequestId()))
+                    .subscribe(response -> {
+                        responseObserver.onNext(response);
+                        responseObserver.onCompleted();
+                    }, error -> {
+                        redisErrors.increment();
+                        responseObserver.onError(toGrpcException("redis rateLimit failed", error));
+                    });
+            return;
+        }
+        RateLimitDecision denied = cachedDenial(request, limit, window);
+        if (denied != null) {
+            responseObserver.onNext(toResponse(denied, request.getRequestId()));
+            responseObserver.onCompleted();
+            return;
+        }
+        stages.submitted();
+        call(rateLimitScript, List.of(key), scriptArgs(limit, window), true, (reply, error) -> {
+            stages.replied();
+            if (error != null) {
+                redisErrors.increment();
+                responseObserver.onError(toGrpcException("redis rateLimit failed", error));
+                return;
+            }
+            RateLimitDecision decision = RateLimitDecision.fromReply(reply);
+            remember(request, limit, window, decision);
+            responseObserver.onNext(toResponse(decision, request.getRequestId()));
+            responseObserver.onCompleted();
+        });
+    }
+
+    /**
+     * Runs every entry through one multi-key fixed-window script call. Entries always go to Redis, even when
+     * the near-cache tier is enabled, so the returned counts are exact.
+     */
+    @Override
+    public void limitBatch(LimitBatchRequest request, StreamObserver<LimitBatchResponse> responseObserver) {
+        int size = request.getEntriesCount();
+        if (size == 0) {
+            responseObserver.onNext(LimitBatchResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+            return;
+        }
+        totalRequests.increment(size);
+        List<String> keys = new ArrayList<>(size);
+        List<String> args = new ArrayList<>(size + 1);
+        args.add(windowArg);
+        for (LimitBatchEntry entry : request.getEntriesList()) {
+            keys.add(entry.getKey());
+            args.add(Long.toString(Math.max(1, entry.getCost())));
+        }
+        StageTimings.Call stages = StageTimings.current();
+        stages.submitted();
+        call(batchRateLimitScript, keys, args, true, (countsAndTtls, error) -> {
+            stages.replied();
+            if (error != null) {
+                redisErrors.increment();
+                responseObserver.onError(toGrpcException("redis limitBatch failed", error));
+                return;
+            }
+            LimitBatchResponse.Builder response = LimitBatchResponse.newBuilder();
+            for (int i = 0; i < size; i++) {
+                LimitBatchEntry entry = request.getEntries(i);
+                long count = countsAndTtls.get(2 * i);
+                long ttl = Math.max(0, countsAndTtls.get(2 * i + 1));
+                RateLimitDecision decision = RateLimitDecision.of(count,
+                        entry.getLimit() > 0 ? entry.getLimit() : limit, ttl);
+                response.addResults(LimitBatchResult.newBuilder()
+                        .setKey(entry.getKey())
+                        .setCount(count)
+                        .setAllowed(decision.allowed())
+                        .setRemaining(decision.remaining())
+                        .setResetMillis(ttl));
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    @Override
+    public StreamObserver<LimitRequest> limitStream(StreamObserver<LimitResponse> responseObserver) {
+        return new LimitStreamObserver(responseObserver);
     }
 
     @Override
     public void reset(ResetRequest request, StreamObserver<ResetResponse> responseObserver) {
+        if (nearCache != null) {
+            nearCache.invalidate(request.getKeysList());
+        }
+        if (denyCache != null) {
+            denyCache.invalidate(request.getKeysList());
+        }
         redisTemplate.delete(request.getKeysList().toArray(new String[0]))
                 .defaultIfEmpty(0L)
                 .map(deleted -> ResetResponse.newBuilder().setDeleted(deleted).build())
                 .subscribe(response -> {
                     responseObserver.onNext(response);
                     responseObserver.onCompleted();
-                }, responseObserver::onError);
+                }, error -> responseObserver.onError(toGrpcException("redis reset failed", error)));
+    }
+
+    /**
+     * Whether the async engine's raw Lettuce client can serve this request: default algorithm with no prefix
+     * mapping and no near-cache / batching tier in the way. The key is then never decoded to a String.
+     */
+    private boolean isRaw(LimitRequest request) {
+        return limiterClient != null
+                && request.getAlgorithm() == Algorithm.ALGORITHM_UNSPECIFIED
+                && !algorithms.hasPrefixes()
+                && !usesTier(limitOf(request), windowOf(request));
+    }
+
+    private void limitRaw(LimitRequest request, BiConsumer<RateLimitDecision, Throwable> done) {
+        long start = System.nanoTime();
+        limiterClient.limit(request.getKeyBytes(), limitOf(request), windowOf(request), (decision, error) -> {
+            redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            done.accept(decision, error);
+        });
+    }
+
+    private long limitOf(LimitRequest request) {
+        return request.getLimit() > 0 ? request.getLimit() : limit;
+    }
+
+    private long windowOf(LimitRequest request) {
+        return request.getWindowMillis() > 0 ? request.getWindowMillis() : windowMillis;
+    }
+
+    /**
+     * Near-cache fast path. The tier tracks the configured limit and window only, so requests overriding
+     * either always go to Redis.
+     *
+     * @return the locally estimated decision, or {@code null} if the request has to go to Redis
+     */
+    private RateLimitDecision tryLocal(String key, RateLimitAlgorithm algorithm, long limit, long window) {
+        if (nearCache == null || algorithm != null || limit != this.limit || window != windowMillis) {
+            return null;
+        }
+        return nearCache.tryAcquire(key);
+    }
+
+    /**
+     * Deny-cache fast path for default fixed-window requests; the cache only knows the configured limit and
+     * window, so requests overriding either always go to Redis.
+     *
+     * @return a local denial, or {@code null} if the request has to go to Redis
+     */
+    private RateLimitDecision cachedDenial(LimitRequest request, long limit, long window) {
+        if (denyCache == null || limit != this.limit || window != windowMillis) {
+            return null;
+        }
+        return denyCache.check(request.getKeyBytes());
+    }
+
+    private void remember(LimitRequest request, long limit, long window, RateLimitDecision decision) {
+        if (denyCache != null && limit == this.limit && window == windowMillis) {
+            denyCache.record(request.getKeyBytes(), decision);
+        }
+    }
+
+    /**
+     * Whether the near-cache or batching tier handles a default-algorithm request.
+     */
+    private boolean usesTier(long limit, long window) {
+        boolean defaultWindow = window == windowMillis;
+        return (nearCache != null && defaultWindow && limit == this.limit) || (batcher != null && defaultWindow);
+    }
+
+    /**
+     * Algorithms and the near-cache / batching tiers are built on Reactor and run the same on every engine.
+     */
+    private Mono<RateLimitDecision> executeTiered(String key, RateLimitAlgorithm algorithm, long limit, long window) {
+        if (algorithm != null) {
+            return algorithm.evaluate(key, 1, limit, window);
+        }
+        if (nearCache != null && window == windowMillis && limit == this.limit) {
+            return nearCache.acquireRemote(key);
+        }
+        return batcher.submit(key, limit);
+    }
+
+    private List<String> scriptArgs(long limit, long window) {
+        return window == windowMillis && limit == this.limit
+                ? defaultScriptArgs
+                : List.of(Long.toString(window), Long.toString(limit));
+    }
+
+    /**
+     * Runs a fixed-window script on the configured engine and hands the reply or the error to {@code done}.
+     * {@code mayBlock} is false where the caller must not be blocked (LimitStream callbacks are serialized per
+     * call), in which case the virtual engine falls back to the async API.
+     */
+    private <T> void call(RedisScript<T> script, List<String> keys, List<String> args, boolean mayBlock,
+                          BiConsumer<T, Throwable> done) {
+        long start = System.nanoTime();
+        switch (engine) {
+            case REACTIVE -> scriptExecutor.execute(script, keys, args).subscribe(reply -> {
+                redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                done.accept(reply, null);
+            }, error -> {
+                redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                done.accept(null, error);
+            });
+            case VIRTUAL -> {
+                if (!mayBlock) {
+                    callAsync(script, keys, args, start, done);
+                    return;
+                }
+                T reply;
+                try {
+                    reply = scriptExecutor.executeSync(script, keys, args);
+                } catch (RuntimeException e) {
+                    redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    done.accept(null, e);
+                    return;
+                }
+                redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                done.accept(reply, null);
+            }
+            case ASYNC -> callAsync(script, keys, args, start, done);
+        }
+    }
+
+    private <T> void callAsync(RedisScript<T> script, List<String> keys, List<String> args, long start,
+                               BiConsumer<T, Throwable> done) {
+        scriptExecutor.executeAsync(script, keys, args).whenComplete((reply, error) -> {
+            redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            done.accept(reply, error);
+        });
+    }
+
+    private static LimitResponse toResponse(RateLimitDecision decision, long requestId) {
+        return LimitResponse.newBuilder()
+                .setCount(decision.count())
+                .setRequestId(requestId)
+                .setAllowed(decision.allowed())
+                .setRemaining(decision.remaining())
+                .setResetMillis(decision.resetMillis())
+                .build();
+    }
+
+    private <T> Mono<T> timed(Mono<T> execution) {
+        long start = System.nanoTime();
+        return execution.doOnTerminate(() -> redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Maps a Redis failure to a gRPC status: connectivity problems become UNAVAILABLE so clients can retry,
+     * everything else INTERNAL. Package-private for the JMH benchmarks.
+     */
+    static Throwable toGrpcException(String message, Throwable error) {
+        // Spring Data Redis typically wraps connectivity issues in runtime exceptions; classify conservatively.
+        Status status = Status.INTERNAL.withDescription(message + ": " + safeMessage(error));
+
+        // Heuristic: treat obvious network/availability problems as UNAVAILABLE.
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            String cn = t.getClass().getName();
+            if (cn.contains("RedisConnectionFailureException")
+                    || cn.contains("PoolException")
+                    || cn.contains("io.lettuce.core.RedisConnectionException")
+                    || cn.contains("java.net.")
+                    || cn.contains("Timeout")) {
+                status = Status.UNAVAILABLE.withDescription(message + ": " + safeMessage(error));
+                break;
+            }
+        }
+
+        return status.withCause(error).asRuntimeException();
+    }
+
+    private static String safeMessage(Throwable t) {
+        if (t == null) {
+            return "null";
+        }
+        String m = t.getMessage();
+        return m == null || m.isBlank() ? t.getClass().getSimpleName() : m;
+    }
+
+    /**
+     * Handles one LimitStream call. Requests are evaluated concurrently, so replies are serialized on this
+     * observer and the stream is completed only after the client half-closed and the last in-flight request
+     * answered. A Redis failure terminates the whole stream.
+     */
+    private final class LimitStreamObserver implements StreamObserver<LimitRequest> {
+
+        private final StreamObserver<LimitResponse> responseObserver;
+        private final AtomicInteger inflight = new AtomicInteger();
+        private volatile boolean halfClosed;
+        private boolean done;
+
+        private LimitStreamObserver(StreamObserver<LimitResponse> responseObserver) {
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public void onNext(LimitRequest request) {
+            totalRequests.increment();
+            inflight.incrementAndGet();
+            if (isRaw(request)) {
+                limitRaw(request, (decision, error) -> {
+                    if (error != null) {
+                        redisErrors.increment();
+                        fail(toGrpcException("redis rateLimit failed", error));
+                        return;
+                    }
+                    reply(request, decision);
+                });
+                return;
+            }
+            String key = request.getKey();
+            RateLimitAlgorithm algorithm;
+            try {
+                algorithm = algorithms.resolve(key, request.getAlgorithm());
+            } catch (IllegalArgumentException e) {
+                fail(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+                return;
+            }
+            long limit = limitOf(request);
+            long window = windowOf(request);
+            RateLimitDecision local = tryLocal(key, algorithm, limit, window);
+            if (local != null) {
+                reply(request, local);
+                return;
+            }
+            if (algorithm != null || usesTier(limit, window)) {
+                timed(executeTiered(key, algorithm, limit, window)).subscribe(decision -> reply(request, decision), error -> {
+                    redisErrors.increment();
+                    fail(toGrpcException("redis rateLimit failed", error));
+                });
+                return;
+            }
+            call(rateLimitScript, List.of(key), scriptArgs(limit, window), false, (result, error) -> {
+                if (error != null) {
+                    redisErrors.increment();
+                    fail(toGrpcException("redis rateLimit failed", error));
+                    return;
+                }
+                reply(request, RateLimitDecision.fromReply(result));
+            });
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // Client cancelled; in-flight replies are dropped by reply().
+            synchronized (this) {
+                done = true;
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            halfClosed = true;
+            if (inflight.get() == 0) {
+                finish();
+            }
+        }
+
+        private void reply(LimitRequest request, RateLimitDecision decision) {
+            synchronized (this) {
+                if (!done) {
+                    responseObserver.onNext(toResponse(decision, request.getRequestId()));
+                }
+            }
+            if (inflight.decrementAndGet() == 0 && halfClosed) {
+                finish();
+            }
+        }
+
+        private synchronized void finish() {
+            if (!done) {
+                done = true;
+                responseObserver.onCompleted();
+            }
+        }
+
+        private synchronized void fail(Throwable error) {
+            if (!done) {
+                done = true;
+                responseObserver.onError(error);
+            }
+        }
     }
 }
@@ -0,0 +1,182 @@
+package com.example.ratelimit.grpc;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.config.RateLimitProperties;
+
+import io.grpc.Context;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerStreamTracer;
+import io.grpc.Status;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+
+/**
+ * Breaks the server time of sampled unary calls into stages, recorded as {@code ratelimit.stage.latency}
+ * timers tagged {@code stage}:
+ * <ul>
+ *     <li>{@code receive}: headers read by the transport until the handler runs (executor queueing and request
+ *     parsing)</li>
+ *     <li>{@code submit}: handler entry until the Redis command is issued</li>
+ *     <li>{@code redis}: Redis command until its reply, the same span as {@code ratelimit.redis.latency}</li>
+ *     <li>{@code reply}: Redis reply until the handler calls onNext (Reactor or callback scheduling)</li>
+ *     <li>{@code complete}: onNext until onCompleted returns (response serialization and framing)</li>
+ * </ul>
+ * The receive time comes from a {@link ServerStreamTracer} created on the transport thread, which also
+ * makes the sampling decision, so unsampled calls cost one random draw and no allocation. Handlers find
+ * their call's timer with {@link #current()}; near-cache hits never reach Redis and record only the
+ * {@code receive} and {@code complete} stages. Streaming calls are not broken down.
+ */
+@Component
+@GrpcGlobalServerInterceptor
+@ConditionalOnProperty(prefix = "ratelimit.stage-timing", name = "enabled", havingValue = "true")
+public class StageTimings implements ServerInterceptor, GrpcServerConfigurer {
+
+    private static final Context.Key<Call> CALL = Context.key("ratelimit-stage-timings");
+
+    private static final ServerStreamTracer UNSAMPLED = new ServerStreamTracer() {
+    };
+
+    private final double sampleRate;
+    private final Timer receive;
+    private final Timer submit;
+    private final Timer redis;
+    private final Timer reply;
+    private final Timer complete;
+
+    public StageTimings(RateLimitProperties properties, MeterRegistry meterRegistry) {
+        this.sampleRate = properties.getStageTiming().getSampleRate();
+        this.receive = stageTimer("receive", meterRegistry);
+        this.submit = stageTimer("submit", meterRegistry);
+        this.redis = stageTimer("redis", meterRegistry);
+        this.reply = stageTimer("reply", meterRegistry);
+        this.complete = stageTimer("complete", meterRegistry);
+    }
+
+    private static Timer stageTimer(String stage, MeterRegistry meterRegistry) {
+        return Timer.builder("ratelimit.stage.latency")
+                .description("Server time of sampled unary calls by stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the timer of the unary call being handled on this thread, or a no-op one if the call is not
+     * sampled
+     */
+    static Call current() {
+        Call call = CALL.get();
+        return call != null && call.handlerNanos != 0 ? call : Call.NOOP;
+    }
+
+    @Override
+    public void accept(ServerBuilder<?> serverBuilder) {
+        serverBuilder.addStreamTracerFactory(new ServerStreamTracer.Factory() {
+            @Override
+            public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+                if (ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+                    return UNSAMPLED;
+                }
+                Call call = new Call(System.nanoTime());
+                return new ServerStreamTracer() {
+                    @Override
+                    public Context filterContext(Context context) {
+                        return context.withValue(CALL, call);
+                    }
+                };
+            }
+        });
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        Call timer = CALL.get();
+        if (timer == null || call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.startCall(call, headers);
+        }
+        ServerCall<ReqT, RespT> timed = new SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                timer.respondedNanos = System.nanoTime();
+                super.sendMessage(message);
+            }
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                super.close(status, trailers);
+                record(timer, System.nanoTime());
+            }
+        };
+        return new SimpleForwardingServerCallListener<>(next.startCall(timed, headers)) {
+            @Override
+            public void onHalfClose() {
+                // Unary handlers run inside onHalfClose, once the single request message has arrived.
+                timer.handlerNanos = System.nanoTime();
+                super.onHalfClose();
+            }
+        };
+    }
+
+    private void record(Call call, long completedNanos) {
+        stage(receive, call.receivedNanos, call.handlerNanos);
+        stage(submit, call.handlerNanos, call.submittedNanos);
+        stage(redis, call.submittedNanos, call.repliedNanos);
+        stage(reply, call.repliedNanos, call.respondedNanos);
+        stage(complete, call.respondedNanos, completedNanos);
+    }
+
+    private static void stage(Timer timer, long fromNanos, long toNanos) {
+        if (fromNanos != 0 && toNanos != 0) {
+            timer.record(toNanos - fromNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Timestamps of one sampled call. Each is written once, by whichever thread the call is on at that point;
+     * gRPC's executor handoffs and the Redis reply callback order the writes before {@code close} reads them.
+     */
+    static final class Call {
+
+        static final Call NOOP = new Call(0);
+
+        final long receivedNanos;
+        long handlerNanos;
+        long submittedNanos;
+        long repliedNanos;
+        long respondedNanos;
+
+        private Call(long receivedNanos) {
+            this.receivedNanos = receivedNanos;
+        }
+
+        /** Marks the Redis command (or the tier standing in for it) as issued. */
+        void submitted() {
+            if (this != NOOP) {
+                submittedNanos = System.nanoTime();
+            }
+        }
+
+        /** Marks the Redis reply as received. */
+        void replied() {
+            if (this != NOOP) {
+                repliedNanos = System.nanoTime();
+            }
+        }
+    }
+}
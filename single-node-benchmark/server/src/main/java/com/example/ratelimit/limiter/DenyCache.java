@@ -0,0 +1,105 @@
+package com.example.ratelimit.limiter;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.algorithm.RateLimitDecision;
+import com.example.ratelimit.config.RateLimitProperties;
+import com.google.protobuf.ByteString;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * In-process tier that answers repeat requests for keys Redis has already denied, without a round trip.
+ * <p>
+ * A fixed-window count never goes down before the window resets, so once Redis denies a key whose window
+ * outlasts the current {@code bucket}, every further request for it is denied too until the bucket ends. Those
+ * keys are remembered off-heap, which keeps millions of denied keys out of the heap; a key there is no room for
+ * simply keeps going to Redis. Only requests with the default algorithm, limit and window are cached, since the
+ * cache is keyed by key alone. Denials answered here are not counted in Redis, so the count they report is the
+ * count Redis returned plus the requests denied locally since.
+ * <p>
+ * The cache is approximate in one direction: it can deny a key Redis would have allowed. An
+ * {@link OffHeapCounterStore} only tells keys apart by their home slot and a 24-bit fingerprint, so on its own
+ * a lookup of an uncached key would match another key's slot about once in a million lookups once chains get
+ * long. Keys are therefore recorded in two stores addressed by independent hashes, and a request is only denied
+ * when both hold a denial for it. That makes a false denial need a collision in both, about 2<sup>-40</sup> per
+ * lookup with full probe chains and orders of magnitude less at normal occupancy. The other remaining case is
+ * a key denied exactly a multiple of 65536 buckets ago (about 109 minutes at 100ms) and not seen since, which
+ * reads its old denial again for one bucket.
+ * <p>
+ * Exported as {@code ratelimit.denycache.hits} and {@code ratelimit.denycache.rejected} (denials that found no
+ * slot), and the size of both tables as {@code ratelimit.denycache.bytes}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit.deny-cache", name = "enabled", havingValue = "true")
+public class DenyCache {
+
+    /** Addressed by {@link OffHeapCounterStore#hash(ByteString)} of the key. */
+    private final OffHeapCounterStore store;
+    /** Addressed by {@link OffHeapCounterStore#rehash(long)} of that hash. */
+    private final OffHeapCounterStore check;
+    private final long bucketMillis;
+    private final Counter hits;
+    private final Counter rejected;
+
+    public DenyCache(RateLimitProperties properties, MeterRegistry meterRegistry) {
+        RateLimitProperties.DenyCache config = properties.getDenyCache();
+        this.store = OffHeapCounterStore.withBudget(config.getMemory().toBytes() / 2, config.getBucket());
+        this.check = OffHeapCounterStore.withBudget(config.getMemory().toBytes() / 2, config.getBucket());
+        this.bucketMillis = config.getBucket().toMillis();
+        this.hits = meterRegistry.counter("ratelimit.denycache.hits");
+        this.rejected = meterRegistry.counter("ratelimit.denycache.rejected");
+        Gauge.builder("ratelimit.denycache.bytes", this, cache -> cache.store.memoryBytes() + cache.check.memoryBytes())
+                .description("Off-heap memory of the deny cache tables")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return a denial if Redis denied {@code key} earlier in the current bucket, otherwise {@code null}
+     */
+    public RateLimitDecision check(ByteString key) {
+        long hash = OffHeapCounterStore.hash(key);
+        long checkHash = OffHeapCounterStore.rehash(hash);
+        // One clock read for all calls, so the increments land in the bucket the denial was read from.
+        long now = System.currentTimeMillis();
+        if (store.get(hash, now) == 0 || check.get(checkHash, now) == 0) {
+            return null;
+        }
+        // The smaller count, since a slot shared with a colliding key can only add to it.
+        long count = Math.min(store.increment(hash, 1, now), check.increment(checkHash, 1, now));
+        hits.increment();
+        return new RateLimitDecision(false, count, 0, bucketMillis - now % bucketMillis);
+    }
+
+    /**
+     * Remembers a decision Redis made for {@code key} if it is a denial that lasts past the current bucket.
+     */
+    public void record(ByteString key, RateLimitDecision decision) {
+        long now = System.currentTimeMillis();
+        if (decision.allowed() || decision.resetMillis() < bucketMillis - now % bucketMillis) {
+            return;
+        }
+        long count = Math.max(1, decision.count());
+        long hash = OffHeapCounterStore.hash(key);
+        long checkHash = OffHeapCounterStore.rehash(hash);
+        boolean stored = (store.get(hash, now) != 0 || store.increment(hash, count, now) >= 0)
+                & (check.get(checkHash, now) != 0 || check.increment(checkHash, count, now) >= 0);
+        if (!stored) {
+            rejected.increment();
+        }
+    }
+
+    /**
+     * Forgets keys that are being reset in Redis.
+     */
+    public void invalidate(Iterable<String> keys) {
+        for (String key : keys) {
+            long hash = OffHeapCounterStore.hash(ByteString.copyFromUtf8(key));
+            store.reset(hash);
+            check.reset(OffHeapCounterStore.rehash(hash));
+        }
+    }
+}
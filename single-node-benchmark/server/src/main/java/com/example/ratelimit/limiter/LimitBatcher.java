@@ -0,0 +1,191 @@
+package com.example.ratelimit.limiter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.algorithm.RateLimitDecision;
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Gathers concurrent Limit calls into batches and runs each batch as one multi-key script call.
+ * <p>
+ * A single drainer thread closes a batch when it reaches {@code max-batch-size} or when its first request
+ * has waited {@code max-delay}, whichever comes first. The script call itself is asynchronous, so the
+ * drainer goes straight back to collecting the next batch while earlier ones are in flight on the shared
+ * connection. Results are fanned back out to each caller in submission order.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit.batching", name = "enabled", havingValue = "true")
+public class LimitBatcher {
+
+    private final ScriptExecutor scriptExecutor;
+    private final RedisScript<List<Long>> batchScript;
+    private final List<String> scriptArgs;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue;
+
+    private final DistributionSummary batchSize;
+    private final Timer queueWait;
+    private final Timer batchLatency;
+    private final Counter rejected;
+
+    private volatile boolean running;
+    private Thread drainer;
+
+    public LimitBatcher(ScriptExecutor scriptExecutor,
+                        @Qualifier("batchRateLimitScript") RedisScript<List<Long>> batchScript,
+                        RateLimitProperties properties,
+                        MeterRegistry meterRegistry) {
+        RateLimitProperties.Batching config = properties.getBatching();
+        this.scriptExecutor = scriptExecutor;
+        this.batchScript = batchScript;
+        this.scriptArgs = List.of(String.valueOf(Duration.ofSeconds(properties.getWindowSeconds()).toMillis()));
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.maxDelayNanos = config.getMaxDelay().toNanos();
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+
+        this.batchSize = DistributionSummary.builder("ratelimit.batch.size")
+                .description("Limit requests per multi-key script call")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("ratelimit.batch.wait")
+                .description("Time a Limit request waits for its batch to be dispatched")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchLatency = Timer.builder("ratelimit.batch.latency")
+                .description("Time taken to execute one batched Redis script")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejected = meterRegistry.counter("ratelimit.batch.rejected");
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        drainer = new Thread(this::drain, "ratelimit-batcher");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        drainer.interrupt();
+        drainer.join(TimeUnit.SECONDS.toMillis(5));
+        // The drainer fails what is left in the queue on exit; this covers a drainer that did not get there.
+        failQueued();
+    }
+
+    /**
+     * Queues one increment of {@code key} in the configured window; the returned Mono emits the decision
+     * against {@code limit} once its batch completes. Fails once the batcher is stopped.
+     */
+    public Mono<RateLimitDecision> submit(String key, long limit) {
+        return Mono.create(sink -> {
+            if (!running) {
+                sink.error(stopped());
+                return;
+            }
+            Pending pending = new Pending(key, limit, sink, System.nanoTime());
+            if (!queue.offer(pending)) {
+                rejected.increment();
+                sink.error(new IllegalStateException("batch queue full (" + queue.size() + " waiting)"));
+                return;
+            }
+            // Stopped while offering: the final drain may already have run. Whoever removes the entry fails it.
+            if (!running && queue.remove(pending)) {
+                sink.error(stopped());
+            }
+        });
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedAt + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    Pending next = queue.poll();
+                    if (next == null) {
+                        long waitNanos = deadline - System.nanoTime();
+                        if (waitNanos <= 0 || (next = queue.poll(waitNanos, TimeUnit.NANOSECONDS)) == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                }
+                dispatch(List.copyOf(batch));
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Pending pending : batch) {
+            pending.sink.error(stopped());
+        }
+        failQueued();
+    }
+
+    private void failQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.sink.error(stopped());
+        }
+    }
+
+    private static IllegalStateException stopped() {
+        return new IllegalStateException("batcher stopped");
+    }
+
+    private void dispatch(List<Pending> batch) {
+        long now = System.nanoTime();
+        List<String> keys = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            keys.add(pending.key);
+            queueWait.record(now - pending.enqueuedAt, TimeUnit.NANOSECONDS);
+        }
+        batchSize.record(batch.size());
+        scriptExecutor.execute(batchScript, keys, scriptArgs)
+                .doOnTerminate(() -> batchLatency.record(System.nanoTime() - now, TimeUnit.NANOSECONDS))
+                .subscribe(countsAndTtls -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        Pending pending = batch.get(i);
+                        pending.sink.success(RateLimitDecision.of(countsAndTtls.get(2 * i), pending.limit,
+                                countsAndTtls.get(2 * i + 1)));
+                    }
+                }, error -> {
+                    for (Pending pending : batch) {
+                        pending.sink.error(error);
+                    }
+                });
+    }
+
+    private record Pending(String key, long limit, MonoSink<RateLimitDecision> sink, long enqueuedAt) {
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.ratelimit.limiter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.algorithm.RateLimitDecision;
+import com.example.ratelimit.config.RateLimitProperties;
+import com.example.ratelimit.redis.ScriptExecutor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * In-process counting tier in front of Redis.
+ * <p>
+ * Each instance accumulates increments per key and flushes them every {@code sync-interval} with one
+ * INCRBY. A request is answered locally when the key is clearly under its limit (local estimate plus the
+ * accepted error still fits) or clearly over it (the last global count already exceeded the limit).
+ * Everything in between goes to Redis synchronously together with the pending delta.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit.near-cache", name = "enabled", havingValue = "true")
+public class NearCache {
+
+    private final ScriptExecutor scriptExecutor;
+    private final RedisScript<List<Long>> syncScript;
+    private final String windowArg;
+    private final long windowMillis;
+    private final long limit;
+    private final long margin;
+    private final int maxKeys;
+    private final long idleTimeoutMillis;
+    private final Duration syncInterval;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Counter localHits;
+    private final Counter remoteSyncs;
+    private final Counter bypassed;
+    private final Counter evictions;
+    private final Counter flushErrors;
+
+    private Disposable flushTask;
+
+    public NearCache(ScriptExecutor scriptExecutor,
+                     @Qualifier("nearCacheSyncScript") RedisScript<List<Long>> syncScript,
+                     RateLimitProperties properties,
+                     MeterRegistry meterRegistry) {
+        RateLimitProperties.NearCache config = properties.getNearCache();
+        this.scriptExecutor = scriptExecutor;
+        this.syncScript = syncScript;
+        this.windowMillis = Duration.ofSeconds(properties.getWindowSeconds()).toMillis();
+        this.windowArg = String.valueOf(windowMillis);
+        this.limit = properties.getLimit();
+        this.margin = Math.max(1, (long) (properties.getLimit() * config.getMaxError()));
+        this.maxKeys = config.getMaxKeys();
+        this.idleTimeoutMillis = config.getIdleTimeout().toMillis();
+        this.syncInterval = config.getSyncInterval();
+
+        this.localHits = meterRegistry.counter("ratelimit.nearcache.local");
+        this.remoteSyncs = meterRegistry.counter("ratelimit.nearcache.remote");
+        this.bypassed = meterRegistry.counter("ratelimit.nearcache.bypassed");
+        this.evictions = meterRegistry.counter("ratelimit.nearcache.evictions");
+        this.flushErrors = meterRegistry.counter("ratelimit.nearcache.flush.errors");
+        Gauge.builder("ratelimit.nearcache.keys", entries, Map::size)
+                .description("Keys currently tracked by the near-cache tier")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        flushTask = Flux.interval(syncInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> flush())
+                .subscribe();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (flushTask != null) {
+            flushTask.dispose();
+        }
+        flush().block(Duration.ofSeconds(5));
+    }
+
+    /**
+     * Tries to answer a request without Redis. Only valid for requests using the configured limit and window.
+     *
+     * @return the decision based on the estimated window count including this request, or {@code null} if
+     *         the caller must use {@link #acquireRemote(String)}
+     */
+    public RateLimitDecision tryAcquire(String key) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                if (entries.size() >= maxKeys) {
+                    bypassed.increment();
+                    return null;
+                }
+                entry = entries.computeIfAbsent(key, k -> new Entry(k, now));
+            }
+            entry.lastAccess = now;
+            if (now - entry.windowStart >= windowMillis) {
+                entry.roll(now, windowMillis);
+            }
+
+            long synced = entry.synced;
+            long pending = entry.pending.get();
+            boolean clearlyOver = synced > limit;
+            boolean clearlyUnder = pending < margin && synced + pending + 1 + margin <= limit;
+            if (!clearlyOver && !clearlyUnder) {
+                return null;
+            }
+            long count = synced + entry.pending.incrementAndGet();
+            if (entry.retired) {
+                // The flush task is evicting this entry and may already have read pending; count on the next one.
+                entry.pending.decrementAndGet();
+                Thread.onSpinWait();
+                continue;
+            }
+            localHits.increment();
+            return RateLimitDecision.of(count, limit, entry.windowStart + windowMillis - now);
+        }
+    }
+
+    /**
+     * Counts this request in Redis together with any pending local increments for the key.
+     */
+    public Mono<RateLimitDecision> acquireRemote(String key) {
+        remoteSyncs.increment();
+        Entry entry = entries.get(key);
+        Mono<List<Long>> reply;
+        if (entry == null) {
+            reply = scriptExecutor.execute(syncScript, List.of(key), List.of(windowArg, "1"));
+        } else {
+            long delta = entry.pending.getAndSet(0) + 1;
+            reply = sync(entry, delta, delta - 1);
+        }
+        return reply.map(countAndTtl -> RateLimitDecision.of(countAndTtl.get(0), limit, countAndTtl.get(1)));
+    }
+
+    /**
+     * Drops local state for keys that are being reset in Redis.
+     */
+    public void invalidate(Iterable<String> keys) {
+        for (String key : keys) {
+            entries.remove(key);
+        }
+    }
+
+    private Mono<Void> flush() {
+        long now = System.currentTimeMillis();
+        return Flux.fromIterable(entries.values())
+                .filter(entry -> {
+                    if (entry.pending.get() == 0 && now - entry.lastAccess > idleTimeoutMillis && retire(entry)) {
+                        evictions.increment();
+                    }
+                    return entry.pending.get() > 0;
+                })
+                .flatMap(entry -> {
+                    long delta = entry.pending.getAndSet(0);
+                    return delta > 0 ? sync(entry, delta, delta).onErrorResume(error -> Mono.empty()) : Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Drops an idle entry with nothing left to flush, unless a request counts on it meanwhile. A request
+     * increments {@code pending} and then reads {@code retired}; this sets {@code retired} and then reads
+     * {@code pending}. Either this sees the increment and keeps the entry, or the request sees the flag, takes its
+     * increment back and retries on a fresh entry once this one is gone.
+     *
+     * @return whether the entry was removed
+     */
+    private boolean retire(Entry entry) {
+        entry.retired = true;
+        if (entry.pending.get() == 0 && entries.remove(entry.key, entry)) {
+            return true;
+        }
+        entry.retired = false;
+        return false;
+    }
+
+    private Mono<List<Long>> sync(Entry entry, long delta, long restoreOnError) {
+        return scriptExecutor.execute(syncScript, List.of(entry.key), List.of(windowArg, Long.toString(delta)))
+                .doOnNext(countAndTtl -> entry.onSynced(countAndTtl.get(0), countAndTtl.get(1),
+                        System.currentTimeMillis(), windowMillis))
+                .doOnError(error -> {
+                    flushErrors.increment();
+                    entry.pending.addAndGet(restoreOnError);
+                });
+    }
+
+    private static final class Entry {
+        private final String key;
+        /** Local increments not yet flushed to Redis. */
+        private final AtomicLong pending = new AtomicLong();
+        /** Global window count as of the last reply from Redis. */
+        private volatile long synced;
+        private volatile long windowStart;
+        private volatile long lastAccess;
+        /** Set while the flush task is evicting the entry; requests that see it count on a new entry instead. */
+        private volatile boolean retired;
+
+        private Entry(String key, long now) {
+            this.key = key;
+            this.windowStart = now;
+            this.lastAccess = now;
+        }
+
+        /**
+         * Starts a new local window. Unflushed increments belong to the expired window and are dropped.
+         */
+        private synchronized void roll(long now, long windowMillis) {
+            if (now - windowStart >= windowMillis) {
+                windowStart = now;
+                synced = 0;
+                pending.set(0);
+            }
+        }
+
+        /**
+         * Records the global count and aligns the local window with the key's remaining TTL in Redis.
+         */
+        private synchronized void onSynced(long count, long ttlMillis, long now, long windowMillis) {
+            if (ttlMillis >= 0) {
+                windowStart = now + ttlMillis - windowMillis;
+            }
+            synced = count;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.ratelimit.limiter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Fixed-size table of per-key window counters outside the Java heap, for in-process counting over millions of
+ * keys without putting millions of objects in front of the garbage collector.
+ * <p>
+ * Keys are addressed by a 64-bit hash of their bytes ({@link #hash(ByteString)}); the low bits pick the home
+ * slot and the table is probed linearly from there for at most {@value #MAX_PROBES} slots. Each slot is one
+ * {@code long} holding a 24-bit fingerprint from the high bits of the hash, a 16-bit time bucket and a 24-bit
+ * count, so claiming a slot, incrementing it and starting a new bucket are each a single compare-and-set and
+ * no thread ever blocks. A count belongs to the current bucket only; a slot from an older bucket reads as zero
+ * and is free to be taken by any key. The table never grows: a key that finds neither its slot nor a free
+ * one within the probe limit is rejected, and the caller falls back to its slow path.
+ * <p>
+ * Trade-offs of the packed slot: keys whose hashes agree on the index and fingerprint bits share a counter;
+ * counts saturate at {@value #MAX_COUNT} per bucket; a slot left untouched for exactly a multiple of 65536
+ * buckets reads its old count again for one bucket; and two threads inserting the same new key at the same
+ * time may each claim a slot, in which case the later one is never found again and its increments are lost.
+ * All of these undercount or overcount a single key by a bounded amount, which the approximate tiers using
+ * this store already accept. A caller that must not mistake one key for another can look the key up in a
+ * second store addressed by {@link #rehash(long)}, as {@link DenyCache} does.
+ * <p>
+ * The memory is a direct buffer, released by the garbage collector once the store is unreachable.
+ */
+public final class OffHeapCounterStore {
+
+    static final int MAX_PROBES = 16;
+    static final long MAX_COUNT = (1L << 24) - 1;
+
+    private static final VarHandle SLOTS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int SLOT_BYTES = Long.BYTES;
+    private static final long MAX_BYTES = 1L << 30;
+
+    private final ByteBuffer table;
+    private final int mask;
+    private final long bucketMillis;
+
+    private OffHeapCounterStore(int capacity, Duration bucket) {
+        this.table = ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        this.mask = capacity - 1;
+        this.bucketMillis = bucket.toMillis();
+    }
+
+    /**
+     * Allocates the largest power-of-two table that fits in {@code budgetBytes} (at most 1 GiB, 128M slots).
+     * Keep the expected number of live keys well below {@link #capacity()}; past about 75% occupancy probes
+     * get long and inserts start to be rejected.
+     *
+     * @param bucket length of the counting window; counts reset when it rolls over
+     */
+    public static OffHeapCounterStore withBudget(long budgetBytes, Duration bucket) {
+        long bytes = Math.min(budgetBytes, MAX_BYTES);
+        if (bytes < SLOT_BYTES * MAX_PROBES || bucket.toMillis() <= 0) {
+            throw new IllegalArgumentException("budget must hold at least " + MAX_PROBES + " slots and bucket must be positive");
+        }
+        int capacity = Integer.highestOneBit((int) (bytes / SLOT_BYTES));
+        return new OffHeapCounterStore(capacity, bucket);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public long memoryBytes() {
+        return (long) capacity() * SLOT_BYTES;
+    }
+
+    /**
+     * Adds {@code delta} to the key's count in the current bucket.
+     *
+     * @return the count including {@code delta}, or -1 if the key has no slot and none is free
+     */
+    public long increment(long keyHash, long delta) {
+        return increment(keyHash, delta, System.currentTimeMillis());
+    }
+
+    long increment(long keyHash, long delta, long nowMillis) {
+        long fingerprint = fingerprint(keyHash);
+        long bucket = (nowMillis / bucketMillis) & 0xFFFF;
+        int home = (int) keyHash & mask;
+
+        int free = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = (home + probe) & mask;
+            long slot = (long) SLOTS.getVolatile(table, index * SLOT_BYTES);
+            if (slot != 0 && slot >>> 40 == fingerprint) {
+                return add(index, slot, fingerprint, bucket, delta);
+            }
+            if (free < 0 && (slot == 0 || bucketOf(slot) != bucket)) {
+                free = index;
+            }
+            if (slot == 0) {
+                // Never used, so the key is not further along the chain.
+                break;
+            }
+        }
+        if (free < 0) {
+            return -1;
+        }
+        return add(free, (long) SLOTS.getVolatile(table, free * SLOT_BYTES), fingerprint, bucket, delta);
+    }
+
+    private long add(int index, long slot, long fingerprint, long bucket, long delta) {
+        while (true) {
+            boolean sameKey = slot != 0 && slot >>> 40 == fingerprint;
+            boolean live = slot != 0 && bucketOf(slot) == bucket;
+            if (!sameKey && live) {
+                // A free slot that another key took meanwhile; rather than probing again, take the slow path.
+                return -1;
+            }
+            long count = Math.min(MAX_COUNT, (sameKey && live ? slot & MAX_COUNT : 0) + delta);
+            long next = fingerprint << 40 | bucket << 24 | count;
+            if (SLOTS.compareAndSet(table, index * SLOT_BYTES, slot, next)) {
+                return count;
+            }
+            slot = (long) SLOTS.getVolatile(table, index * SLOT_BYTES);
+        }
+    }
+
+    /**
+     * @return the key's count in the current bucket, 0 if it has none
+     */
+    public long get(long keyHash) {
+        return get(keyHash, System.currentTimeMillis());
+    }
+
+    long get(long keyHash, long nowMillis) {
+        long fingerprint = fingerprint(keyHash);
+        long bucket = (nowMillis / bucketMillis) & 0xFFFF;
+        int home = (int) keyHash & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            long slot = (long) SLOTS.getVolatile(table, ((home + probe) & mask) * SLOT_BYTES);
+            if (slot == 0) {
+                return 0;
+            }
+            if (slot >>> 40 == fingerprint) {
+                return bucketOf(slot) == bucket ? slot & MAX_COUNT : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the key's count in the current bucket to 0. The slot stays claimed, so keys probed past it are still
+     * found; a slot from an older bucket already reads as zero and is left alone.
+     */
+    public void reset(long keyHash) {
+        reset(keyHash, System.currentTimeMillis());
+    }
+
+    void reset(long keyHash, long nowMillis) {
+        long fingerprint = fingerprint(keyHash);
+        long bucket = (nowMillis / bucketMillis) & 0xFFFF;
+        int home = (int) keyHash & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = (home + probe) & mask;
+            long slot = (long) SLOTS.getVolatile(table, index * SLOT_BYTES);
+            if (slot == 0) {
+                return;
+            }
+            while (slot >>> 40 == fingerprint && bucketOf(slot) == bucket && (slot & MAX_COUNT) != 0) {
+                if (SLOTS.compareAndSet(table, index * SLOT_BYTES, slot, fingerprint << 40 | bucket << 24)) {
+                    return;
+                }
+                slot = (long) SLOTS.getVolatile(table, index * SLOT_BYTES);
+            }
+            if (slot >>> 40 == fingerprint) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 64-bit hash of the key bytes as they arrive in the request (FNV-1a, then the MurmurHash3 finalizer so the
+     * low index bits and the high fingerprint bits both depend on every byte).
+     */
+    public static long hash(ByteString key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.size(); i++) {
+            h = (h ^ (key.byteAt(i) & 0xFF)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * The same hash over the UTF-16 code units, for keys held as strings. Does not match {@link #hash(ByteString)}
+     * of the encoded key, so use one or the other for a given store.
+     */
+    public static long hash(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * A second hash of the same key whose index and fingerprint bits are independent of {@code keyHash}'s, so two
+     * keys sharing a slot in one store almost never share one in a store addressed by this hash.
+     */
+    public static long rehash(long keyHash) {
+        return mix(keyHash ^ 0x9e3779b97f4a7c15L);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long fingerprint(long keyHash) {
+        long fingerprint = keyHash >>> 40;
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static long bucketOf(long slot) {
+        return (slot >>> 24) & 0xFFFF;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.ratelimit.redis;
+
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.ByteString;
+
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.ToByteBufEncoder;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Keys are protobuf {@link ByteString}s taken straight from the request and values are pre-encoded bytes.
+ * Both are written directly into Lettuce's outbound buffer, with no String or intermediate byte[] in between.
+ */
+final class ByteStringCodec implements RedisCodec<ByteString, byte[]>, ToByteBufEncoder<ByteString, byte[]> {
+
+    static final ByteStringCodec INSTANCE = new ByteStringCodec();
+
+    private ByteStringCodec() {
+    }
+
+    @Override
+    public ByteString decodeKey(ByteBuffer bytes) {
+        return ByteString.copyFrom(bytes);
+    }
+
+    @Override
+    public byte[] decodeValue(ByteBuffer bytes) {
+        byte[] value = new byte[bytes.remaining()];
+        bytes.get(value);
+        return value;
+    }
+
+    @Override
+    public ByteBuffer encodeKey(ByteString key) {
+        return key.asReadOnlyByteBuffer();
+    }
+
+    @Override
+    public ByteBuffer encodeValue(byte[] value) {
+        return ByteBuffer.wrap(value);
+    }
+
+    @Override
+    public void encodeKey(ByteString key, ByteBuf target) {
+        target.writeBytes(key.asReadOnlyByteBuffer());
+    }
+
+    @Override
+    public void encodeValue(byte[] value, ByteBuf target) {
+        target.writeBytes(value);
+    }
+
+    @Override
+    public int estimateSize(Object keyOrValue) {
+        if (keyOrValue instanceof ByteString key) {
+            return key.size();
+        }
+        return keyOrValue instanceof byte[] value ? value.length : 0;
+    }
+
+    @Override
+    public boolean isEstimateExact() {
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.ratelimit.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.example.ratelimit.config.RateLimitProperties;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.RedisCodec;
+
+/**
+ * A fixed set of native connections to the same Redis, so the hot path is not limited to one Netty channel
+ * and the one event loop thread that serves it.
+ * <p>
+ * {@code KEY_HASH} routing always sends a key to the same connection, which keeps the commands for one key
+ * in order just as a single connection would; {@code ROUND_ROBIN} spreads a hot key over every connection.
+ * With one connection both reduce to the previous single shared connection.
+ *
+ * @param <K> key type of the codec
+ * @param <V> value type of the codec
+ */
+public final class ConnectionStripes<K, V> implements AutoCloseable {
+
+    private final List<StatefulRedisConnection<K, V>> connections;
+    private final RateLimitProperties.Connections.Routing routing;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ConnectionStripes(List<StatefulRedisConnection<K, V>> connections,
+                             RateLimitProperties.Connections.Routing routing) {
+        if (connections.isEmpty()) {
+            throw new IllegalArgumentException("at least one connection is required");
+        }
+        this.connections = List.copyOf(connections);
+        this.routing = routing;
+    }
+
+    /**
+     * Opens {@code ratelimit.connections.count} connections with {@code codec}.
+     */
+    public static <K, V> ConnectionStripes<K, V> connect(RedisClient client, RedisCodec<K, V> codec,
+                                                         RateLimitProperties.Connections properties) {
+        List<StatefulRedisConnection<K, V>> connections = new ArrayList<>(properties.getCount());
+        try {
+            for (int i = 0; i < properties.getCount(); i++) {
+                connections.add(client.connect(codec));
+            }
+        } catch (RuntimeException e) {
+            connections.forEach(StatefulRedisConnection::close);
+            throw e;
+        }
+        return new ConnectionStripes<>(connections, properties.getRouting());
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    /**
+     * @return the connection the command for {@code key} goes to
+     */
+    public int indexOf(Object key) {
+        int size = connections.size();
+        if (size == 1) {
+            return 0;
+        }
+        if (routing == RateLimitProperties.Connections.Routing.ROUND_ROBIN) {
+            return Math.floorMod(next.getAndIncrement(), size);
+        }
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), size);
+    }
+
+    public StatefulRedisConnection<K, V> get(int index) {
+        return connections.get(index);
+    }
+
+    /**
+     * One command API object per connection, indexed like the connections, so callers pick a stripe with
+     * {@link #indexOf} without going through the connection on every call.
+     */
+    public <A> List<A> map(Function<StatefulRedisConnection<K, V>, A> api) {
+        return connections.stream().map(api).toList();
+    }
+
+    @Override
+    public void close() {
+        connections.forEach(StatefulRedisConnection::close);
+    }
+}
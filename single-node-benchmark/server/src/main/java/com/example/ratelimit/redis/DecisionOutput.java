@@ -0,0 +1,59 @@
+package com.example.ratelimit.redis;
+
+import java.nio.ByteBuffer;
+
+import com.example.ratelimit.algorithm.RateLimitDecision;
+import com.google.protobuf.ByteString;
+
+import io.lettuce.core.output.CommandOutput;
+
+/**
+ * Decodes the {@code {allowed, count, remaining, reset_ms}} script reply straight into a
+ * {@link RateLimitDecision}, without the boxed Longs and list of Lettuce's generic MULTI output.
+ */
+final class DecisionOutput extends CommandOutput<ByteString, byte[], RateLimitDecision> {
+
+    private int index;
+    private long allowed;
+    private long count;
+    private long remaining;
+    private long resetMillis;
+    private boolean unexpected;
+
+    DecisionOutput() {
+        super(ByteStringCodec.INSTANCE, null);
+    }
+
+    @Override
+    public void set(long integer) {
+        switch (index++) {
+            case 0 -> allowed = integer;
+            case 1 -> count = integer;
+            case 2 -> remaining = integer;
+            case 3 -> resetMillis = integer;
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void set(ByteBuffer bytes) {
+        unexpected = true;
+    }
+
+    /**
+     * Any other reply shape fails the command, so callers get an error instead of a null decision.
+     */
+    @Override
+    public void complete(int depth) {
+        if (depth != 0 || hasError()) {
+            return;
+        }
+        if (index == 4 && !unexpected) {
+            output = new RateLimitDecision(allowed == 1, count, remaining, resetMillis);
+        } else {
+            setError("unexpected rate limit script reply: " + index + " integers" + (unexpected ? " and bulk strings" : "")
+                    + ", expected 4 integers");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.ratelimit.redis;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.lettuce.core.event.command.CommandFailedEvent;
+import io.lettuce.core.event.command.CommandListener;
+import io.lettuce.core.event.command.CommandStartedEvent;
+import io.lettuce.core.event.command.CommandSucceededEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Counts commands written to a Redis endpoint that have not completed yet, across every connection of one
+ * client: the pipeline depth Lettuce is holding. It grows without bound when the connection, not Redis, is the
+ * bottleneck, long before {@code lettuce.command.completion} shows why. Exported as
+ * {@code lettuce.command.outstanding{endpoint}}.
+ */
+public class OutstandingCommands implements CommandListener {
+
+    private final LongAdder outstanding = new LongAdder();
+
+    public OutstandingCommands(String endpoint, MeterRegistry meterRegistry) {
+        Gauge.builder("lettuce.command.outstanding", outstanding, LongAdder::sum)
+                .description("Commands sent to Redis and still waiting for their reply")
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        outstanding.increment();
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        outstanding.decrement();
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        outstanding.decrement();
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.ratelimit.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.algorithm.RateLimitDecision;
+import com.example.ratelimit.config.RateLimitProperties;
+import com.google.protobuf.ByteString;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandType;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Allocation-lean client for the default fixed-window script, used by the {@code async} engine.
+ * <p>
+ * Commands are dispatched on a {@code <ByteString, byte[]>} connection: the key goes from the protobuf
+ * request into Lettuce's output buffer without a String round trip, the SHA1 (or function name), key count and
+ * default ARGV are encoded once, and the reply is decoded straight into a {@link RateLimitDecision}. Per call
+ * this leaves the command, its argument list and the decision itself. It opens its own
+ * {@link ConnectionStripes}, routed the same way as the {@link ScriptExecutor} ones.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ratelimit", name = "engine", havingValue = "async")
+public class RedisLimiterClient {
+
+    private static final byte[] ONE_KEY = ascii(1);
+
+    private final ConnectionStripes<ByteString, byte[]> connections;
+    private final List<RedisAsyncCommands<ByteString, byte[]>> commands;
+    private final ScriptExecutor scriptExecutor;
+    private final RedisScript<List<Long>> script;
+    private final CommandType command;
+    private final byte[] target;
+    private final long defaultLimit;
+    private final long defaultWindowMillis;
+    private final byte[] defaultLimitArg;
+    private final byte[] defaultWindowArg;
+
+    @Autowired
+    public RedisLimiterClient(RedisClient rateLimitRedisClient,
+                              ScriptExecutor scriptExecutor,
+                              @Qualifier("rateLimitScript") RedisScript<List<Long>> script,
+                              RateLimitProperties properties) {
+        this(ConnectionStripes.connect(rateLimitRedisClient, ByteStringCodec.INSTANCE, properties.getConnections()),
+                scriptExecutor, script, properties);
+    }
+
+    /**
+     * Over connections opened elsewhere, e.g. stubbed ones in the microbenchmarks.
+     */
+    RedisLimiterClient(ConnectionStripes<ByteString, byte[]> connections,
+                       ScriptExecutor scriptExecutor,
+                       RedisScript<List<Long>> script,
+                       RateLimitProperties properties) {
+        this.connections = connections;
+        this.commands = connections.map(StatefulRedisConnection::async);
+        this.scriptExecutor = scriptExecutor;
+        this.script = script;
+        boolean function = scriptExecutor.mode() == ScriptExecutor.Mode.FUNCTION;
+        this.command = function ? CommandType.FCALL : CommandType.EVALSHA;
+        this.target = (function ? ScriptExecutor.functionName(script.getSha1()) : script.getSha1())
+                .getBytes(StandardCharsets.US_ASCII);
+        this.defaultLimit = properties.getLimit();
+        this.defaultWindowMillis = properties.getWindowSeconds() * 1000;
+        this.defaultLimitArg = ascii(defaultLimit);
+        this.defaultWindowArg = ascii(defaultWindowMillis);
+    }
+
+    @PreDestroy
+    void close() {
+        connections.close();
+    }
+
+    /**
+     * Counts one request for {@code key} and hands the decision (or the error) to {@code done} on the Lettuce
+     * event loop. A NOSCRIPT reply reloads the script once and retries.
+     */
+    public void limit(ByteString key, long limit, long windowMillis, BiConsumer<RateLimitDecision, Throwable> done) {
+        byte[] windowArg = windowMillis == defaultWindowMillis ? defaultWindowArg : ascii(windowMillis);
+        byte[] limitArg = limit == defaultLimit ? defaultLimitArg : ascii(limit);
+        dispatch(key, windowArg, limitArg).whenComplete((decision, error) -> {
+            if (error == null || !ScriptExecutor.isMissingScript(unwrap(error))) {
+                done.accept(decision, error == null ? null : unwrap(error));
+                return;
+            }
+            scriptExecutor.recover(script)
+                    .thenCompose(ignored -> dispatch(key, windowArg, limitArg))
+                    .whenComplete((retried, retryError) -> done.accept(retried, retryError == null ? null : unwrap(retryError)));
+        });
+    }
+
+    private RedisFuture<RateLimitDecision> dispatch(ByteString key, byte[] windowArg, byte[] limitArg) {
+        CommandArgs<ByteString, byte[]> args = new CommandArgs<>(ByteStringCodec.INSTANCE)
+                .add(target)
+                .add(ONE_KEY)
+                .addKey(key)
+                .add(windowArg)
+                .add(limitArg);
+        return commands.get(connections.indexOf(key)).dispatch(command, new DecisionOutput(), args);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static byte[] ascii(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+}
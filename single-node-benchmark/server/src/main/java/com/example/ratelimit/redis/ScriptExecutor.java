@@ -0,0 +1,274 @@
+package com.example.ratelimit.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.example.ratelimit.config.RateLimitProperties;
+
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the rate-limit Lua scripts without ever sending a script body on the hot path.
+ * <p>
+ * In {@code EVALSHA} mode every script is registered with SCRIPT LOAD once at startup and called by SHA1.
+ * In {@code FUNCTION} mode all scripts are installed as one Redis 7 function library ({@code ratelimit})
+ * and called with FCALL. Either way a missing script (NOSCRIPT after SCRIPT FLUSH, a restart or a failover
+ * to a replica that never saw the load) is reloaded once and the call retried; concurrent callers share
+ * the same reload.
+ * <p>
+ * The same call is offered on Lettuce's reactive, async and sync APIs so each server engine can skip the
+ * layers it does not need. Calls are spread over the {@link ConnectionStripes} by their first key; scripts
+ * are loaded through the first connection, since Redis keeps them server-wide.
+ */
+@Component
+public class ScriptExecutor implements SmartInitializingSingleton {
+
+    public enum Mode {
+        EVALSHA,
+        FUNCTION
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(ScriptExecutor.class);
+
+    private static final String LIBRARY = "ratelimit";
+
+    private final ConnectionStripes<String, String> connections;
+    private final List<RedisReactiveCommands<String, String>> commands;
+    private final List<RedisAsyncCommands<String, String>> asyncCommands;
+    private final List<RedisCommands<String, String>> syncCommands;
+    private final Mode mode;
+    /** Script body by SHA1, for SCRIPT LOAD and for building the function library. */
+    private final Map<String, String> scripts = new ConcurrentHashMap<>();
+    private final Map<String, Mono<Void>> reloads = new ConcurrentHashMap<>();
+
+    private final Counter loads;
+    private final Counter loadBytes;
+    private final Counter recoveries;
+    private final Counter redisErrors;
+
+    public ScriptExecutor(ConnectionStripes<String, String> rateLimitConnections,
+                          List<RedisScript<?>> scripts,
+                          RateLimitProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.connections = rateLimitConnections;
+        this.commands = rateLimitConnections.map(StatefulRedisConnection::reactive);
+        this.asyncCommands = rateLimitConnections.map(StatefulRedisConnection::async);
+        this.syncCommands = rateLimitConnections.map(StatefulRedisConnection::sync);
+        this.mode = properties.getScripts().getMode();
+        for (RedisScript<?> script : scripts) {
+            register(script);
+        }
+        this.loads = Counter.builder("ratelimit.script.loads")
+                .description("SCRIPT LOAD / FUNCTION LOAD calls sent to Redis")
+                .tag("mode", mode.name())
+                .register(meterRegistry);
+        this.loadBytes = Counter.builder("ratelimit.script.load.bytes")
+                .description("Script body bytes sent to Redis; flat at steady state")
+                .baseUnit("bytes")
+                .tag("mode", mode.name())
+                .register(meterRegistry);
+        this.recoveries = Counter.builder("ratelimit.script.noscript.recoveries")
+                .description("Calls that found their script missing in Redis and reloaded it")
+                .tag("mode", mode.name())
+                .register(meterRegistry);
+        this.redisErrors = meterRegistry.counter("ratelimit.redis.errors");
+    }
+
+    /**
+     * Makes a script known to the executor. Scripts registered before startup completes are preloaded;
+     * later ones are loaded on their first call.
+     */
+    public void register(RedisScript<?> script) {
+        scripts.put(script.getSha1(), script.getScriptAsString());
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Reloads {@code script} after another connection got NOSCRIPT for it; counted as a recovery.
+     */
+    public CompletionStage<Void> recover(RedisScript<?> script) {
+        recoveries.increment();
+        return reload(script).toFuture();
+    }
+
+    /**
+     * Preloads every registered script. A failure is logged and counted in {@code ratelimit.redis.errors} but
+     * does not stop startup: the first call recovers through the NOSCRIPT path once Redis is reachable.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        Mono<Void> preload = mode == Mode.FUNCTION
+                ? loadLibrary()
+                : Flux.fromIterable(scripts.entrySet()).flatMap(entry -> loadScript(entry.getValue())).then();
+        preload.subscribe(null, error -> {
+            redisErrors.increment();
+            log.warn("Preloading {} scripts in {} mode failed; calls will load them on NOSCRIPT",
+                    scripts.size(), mode, error);
+        });
+    }
+
+    /**
+     * Runs {@code script} by SHA1 (or as a function) with the given keys and arguments.
+     */
+    public <T> Mono<T> execute(RedisScript<T> script, List<String> keys, List<String> args) {
+        String[] keyArray = keys.toArray(new String[0]);
+        String[] argArray = args.toArray(new String[0]);
+        return this.<T>invoke(script, keyArray, argArray)
+                .onErrorResume(ScriptExecutor::isMissingScript, error -> {
+                    recoveries.increment();
+                    return reload(script).then(invoke(script, keyArray, argArray));
+                });
+    }
+
+    /**
+     * Async variant of {@link #execute}; completes on the Lettuce event loop.
+     */
+    public <T> CompletionStage<T> executeAsync(RedisScript<T> script, List<String> keys, List<String> args) {
+        String[] keyArray = keys.toArray(new String[0]);
+        String[] argArray = args.toArray(new String[0]);
+        return this.<T>invokeAsync(script, keyArray, argArray).exceptionallyCompose(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (!isMissingScript(cause)) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            recoveries.increment();
+            return reload(script).toFuture().thenCompose(ignored -> invokeAsync(script, keyArray, argArray));
+        });
+    }
+
+    /**
+     * Blocking variant of {@link #execute}, meant for virtual threads.
+     */
+    public <T> T executeSync(RedisScript<T> script, List<String> keys, List<String> args) {
+        String[] keyArray = keys.toArray(new String[0]);
+        String[] argArray = args.toArray(new String[0]);
+        try {
+            return invokeSync(script, keyArray, argArray);
+        } catch (RuntimeException e) {
+            if (!isMissingScript(e)) {
+                throw e;
+            }
+            recoveries.increment();
+            reload(script).block();
+            return invokeSync(script, keyArray, argArray);
+        }
+    }
+
+    private <T> Mono<T> invoke(RedisScript<T> script, String[] keys, String[] args) {
+        ScriptOutputType type = outputType(script);
+        RedisReactiveCommands<String, String> stripe = commands.get(stripe(keys));
+        Flux<T> reply = mode == Mode.FUNCTION
+                ? stripe.fcall(functionName(script.getSha1()), type, keys, args)
+                : stripe.evalsha(script.getSha1(), type, keys, args);
+        return reply.single();
+    }
+
+    private <T> CompletionStage<T> invokeAsync(RedisScript<T> script, String[] keys, String[] args) {
+        ScriptOutputType type = outputType(script);
+        RedisAsyncCommands<String, String> stripe = asyncCommands.get(stripe(keys));
+        return mode == Mode.FUNCTION
+                ? stripe.fcall(functionName(script.getSha1()), type, keys, args)
+                : stripe.evalsha(script.getSha1(), type, keys, args);
+    }
+
+    private <T> T invokeSync(RedisScript<T> script, String[] keys, String[] args) {
+        ScriptOutputType type = outputType(script);
+        RedisCommands<String, String> stripe = syncCommands.get(stripe(keys));
+        return mode == Mode.FUNCTION
+                ? stripe.fcall(functionName(script.getSha1()), type, keys, args)
+                : stripe.evalsha(script.getSha1(), type, keys, args);
+    }
+
+    private int stripe(String[] keys) {
+        return connections.indexOf(keys.length > 0 ? keys[0] : "");
+    }
+
+    private Mono<Void> reload(RedisScript<?> script) {
+        String id = mode == Mode.FUNCTION ? LIBRARY : script.getSha1();
+        return reloads.computeIfAbsent(id, k -> {
+            scripts.putIfAbsent(script.getSha1(), script.getScriptAsString());
+            Mono<Void> load = mode == Mode.FUNCTION ? loadLibrary() : loadScript(script.getScriptAsString());
+            return load.doFinally(signal -> reloads.remove(k)).cache();
+        });
+    }
+
+    private Mono<Void> loadScript(String body) {
+        return Mono.defer(() -> {
+            countLoad(body);
+            return commands.get(0).scriptLoad(body).then();
+        });
+    }
+
+    private Mono<Void> loadLibrary() {
+        return Mono.defer(() -> {
+            StringBuilder library = new StringBuilder("#!lua name=").append(LIBRARY).append('\n');
+            scripts.forEach((sha, body) -> library.append("redis.register_function('")
+                    .append(functionName(sha))
+                    .append("', function(KEYS, ARGV) ")
+                    .append(body)
+                    .append(" end)\n"));
+            String code = library.toString();
+            countLoad(code);
+            return commands.get(0).functionLoad(code, true).then();
+        });
+    }
+
+    private void countLoad(String body) {
+        loads.increment();
+        loadBytes.increment(body.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    static String functionName(String sha) {
+        return "rl_" + sha;
+    }
+
+    static boolean isMissingScript(Throwable error) {
+        if (error instanceof RedisNoScriptException) {
+            return true;
+        }
+        return error instanceof RedisCommandExecutionException
+                && error.getMessage() != null
+                && error.getMessage().contains("Function not found");
+    }
+
+    private static ScriptOutputType outputType(RedisScript<?> script) {
+        Class<?> type = script.getResultType();
+        if (type == null) {
+            return ScriptOutputType.STATUS;
+        }
+        if (type == Long.class) {
+            return ScriptOutputType.INTEGER;
+        }
+        if (List.class.isAssignableFrom(type)) {
+            return ScriptOutputType.MULTI;
+        }
+        if (type == Boolean.class) {
+            return ScriptOutputType.BOOLEAN;
+        }
+        return ScriptOutputType.VALUE;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.ratelimit.limiter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapCounterStoreTest {
+
+    private static final long BUCKET_MILLIS = 1000;
+
+    /** 64 slots, so home slots and probe chains are easy to steer. */
+    private final OffHeapCounterStore store = OffHeapCounterStore.withBudget(64 * Long.BYTES,
+            Duration.ofMillis(BUCKET_MILLIS));
+
+    /**
+     * A hash whose low bits pick {@code home} and whose high bits give the fingerprint {@code fingerprint}.
+     */
+    private static long hash(long fingerprint, int home) {
+        return fingerprint << 40 | home;
+    }
+
+    @Test
+    void keysSharingAHomeSlotAreChainedAndFoundAgain() {
+        long first = hash(1, 5);
+        long second = hash(2, 5);
+        long third = hash(3, 5);
+
+        assertThat(store.increment(first, 1, 0)).isEqualTo(1);
+        assertThat(store.increment(second, 2, 0)).isEqualTo(2);
+        assertThat(store.increment(third, 3, 0)).isEqualTo(3);
+        assertThat(store.increment(second, 10, 0)).isEqualTo(12);
+
+        assertThat(store.get(first, 0)).isEqualTo(1);
+        assertThat(store.get(second, 0)).isEqualTo(12);
+        assertThat(store.get(third, 0)).isEqualTo(3);
+        assertThat(store.get(hash(4, 5), 0)).isZero();
+    }
+
+    @Test
+    void chainWrapsAroundTheEndOfTheTable() {
+        long last = hash(1, 63);
+        long wrapped = hash(2, 63);
+
+        store.increment(last, 1, 0);
+        assertThat(store.increment(wrapped, 7, 0)).isEqualTo(7);
+        // The wrapped key sits in slot 0, where a key homed there must now probe past it.
+        assertThat(store.increment(hash(3, 0), 1, 0)).isEqualTo(1);
+
+        assertThat(store.get(wrapped, 0)).isEqualTo(7);
+        assertThat(store.get(hash(3, 0), 0)).isEqualTo(1);
+    }
+
+    @Test
+    void countRestartsInANewBucket() {
+        long key = hash(1, 9);
+
+        store.increment(key, 5, 0);
+        assertThat(store.get(key, BUCKET_MILLIS)).isZero();
+        assertThat(store.increment(key, 1, BUCKET_MILLIS)).isEqualTo(1);
+    }
+
+    @Test
+    void staleSlotIsReusedByAnotherKeyWithoutBreakingTheChain() {
+        long stale = hash(1, 20);
+        long chained = hash(2, 20);
+        long newcomer = hash(3, 20);
+
+        store.increment(stale, 4, 0);
+        store.increment(chained, 6, 0);
+        // Next bucket: only the chained key is still counted, so the newcomer takes the stale home slot.
+        store.increment(chained, 1, BUCKET_MILLIS);
+        assertThat(store.increment(newcomer, 2, BUCKET_MILLIS)).isEqualTo(2);
+
+        assertThat(store.get(newcomer, BUCKET_MILLIS)).isEqualTo(2);
+        assertThat(store.get(chained, BUCKET_MILLIS)).isEqualTo(1);
+        assertThat(store.get(stale, BUCKET_MILLIS)).isZero();
+        // The old key comes back and has to find a slot further along, behind the chained key.
+        assertThat(store.increment(stale, 1, BUCKET_MILLIS)).isEqualTo(1);
+        assertThat(store.get(newcomer, BUCKET_MILLIS)).isEqualTo(2);
+    }
+
+    @Test
+    void countSaturatesInsteadOfOverflowingIntoTheBucket() {
+        long key = hash(1, 30);
+
+        assertThat(store.increment(key, OffHeapCounterStore.MAX_COUNT - 1, 0))
+                .isEqualTo(OffHeapCounterStore.MAX_COUNT - 1);
+        assertThat(store.increment(key, 5, 0)).isEqualTo(OffHeapCounterStore.MAX_COUNT);
+        assertThat(store.increment(key, 1, 0)).isEqualTo(OffHeapCounterStore.MAX_COUNT);
+        // Still in the same bucket, so the saturated count did not spill into the bucket bits.
+        assertThat(store.get(key, 0)).isEqualTo(OffHeapCounterStore.MAX_COUNT);
+    }
+
+    @Test
+    void keyIsRejectedOnceItsProbeRangeIsFullOfLiveKeys() {
+        for (int i = 0; i < OffHeapCounterStore.MAX_PROBES; i++) {
+            assertThat(store.increment(hash(i + 1, 40), 1, 0)).isEqualTo(1);
+        }
+
+        long rejected = hash(OffHeapCounterStore.MAX_PROBES + 1, 40);
+        assertThat(store.increment(rejected, 1, 0)).isEqualTo(-1);
+        assertThat(store.get(rejected, 0)).isZero();
+        // Keys already in the range keep counting, and the next bucket frees the range again.
+        assertThat(store.increment(hash(1, 40), 1, 0)).isEqualTo(2);
+        assertThat(store.increment(rejected, 1, BUCKET_MILLIS)).isEqualTo(1);
+    }
+
+    @Test
+    void resetZeroesTheKeyButKeepsTheChain() {
+        long first = hash(1, 50);
+        long second = hash(2, 50);
+
+        store.increment(first, 3, 0);
+        store.increment(second, 4, 0);
+        store.reset(first, 0);
+
+        assertThat(store.get(first, 0)).isZero();
+        assertThat(store.get(second, 0)).isEqualTo(4);
+        assertThat(store.increment(first, 1, 0)).isEqualTo(1);
+    }
+
+    @Test
+    void rehashSeparatesKeysThatShareASlot() {
+        // Same home slot and fingerprint, different middle bits: one counter in this store.
+        long first = hash(7, 5) | 1L << 20;
+        long second = hash(7, 5) | 2L << 20;
+        store.increment(first, 3, 0);
+        assertThat(store.get(second, 0)).isEqualTo(3);
+
+        OffHeapCounterStore check = OffHeapCounterStore.withBudget(64 * Long.BYTES, Duration.ofMillis(BUCKET_MILLIS));
+        check.increment(OffHeapCounterStore.rehash(first), 3, 0);
+        assertThat(check.get(OffHeapCounterStore.rehash(first), 0)).isEqualTo(3);
+        assertThat(check.get(OffHeapCounterStore.rehash(second), 0)).isZero();
+    }
+}